@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.reporter.http;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Back-off from a server that signals pressure: each signal pauses requests, for at least the time required by its
+ * Retry-After header, even beyond the maximum delay. Consecutive signals double the pause, up to a maximum, while
+ * successful requests shorten it by the initial delay (AIMD).<br/>
+ * Once a pause is over, the failover backlog is replayed within a budget of requests per cycle, so that it doesn't hit
+ * the server in a single burst. The budget is halved by each signal and grows by one request after each replay cycle
+ * without pressure, until the backlog is drained.
+ */
+final class Backoff {
+
+    static final int UNLIMITED = Integer.MAX_VALUE;
+    private static final int INITIAL_REPLAY_BUDGET = 2;
+
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    // Guarded by this
+    private long delayMs = 0;
+    private int replayBudget = UNLIMITED;
+    private long signals = 0;
+    private volatile long pausedUntil = 0;
+
+    Backoff(long initialDelayMs, long maxDelayMs) {
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    boolean isPaused() {
+        return System.currentTimeMillis() < pausedUntil;
+    }
+
+    /**
+     * @return the pause duration, in milliseconds
+     */
+    synchronized long onPressure(Optional<Long> retryAfterMs) {
+        delayMs = delayMs == 0 ? initialDelayMs : Math.min(maxDelayMs, delayMs * 2);
+        long pause = Math.max(delayMs, retryAfterMs.orElse(0L));
+        pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + pause);
+        replayBudget = replayBudget == UNLIMITED ? INITIAL_REPLAY_BUDGET : Math.max(1, replayBudget / 2);
+        signals++;
+        return pause;
+    }
+
+    synchronized void onSuccess() {
+        delayMs = Math.max(0, delayMs - initialDelayMs);
+    }
+
+    /**
+     * @return the number of failover requests that may be replayed in this cycle, {@link #UNLIMITED} unless the
+     * server signaled pressure since the backlog was last drained
+     */
+    synchronized int getReplayBudget() {
+        return replayBudget;
+    }
+
+    /**
+     * @return the number of pressure signals so far, to tell whether a replay cycle got any
+     */
+    synchronized long getSignals() {
+        return signals;
+    }
+
+    /**
+     * Grow the replay budget after a replay cycle without pressure, or lift it once the backlog is drained
+     * @param signalsBefore number of signals when the cycle started
+     * @param budget budget of the cycle
+     * @param replayed number of requests replayed in the cycle
+     */
+    synchronized void onReplayed(long signalsBefore, int budget, int replayed) {
+        if (signals != signalsBefore || replayBudget == UNLIMITED) {
+            return;
+        }
+        replayBudget = replayed < budget ? UNLIMITED : replayBudget + 1;
+    }
+
+    /**
+     * Parse a Retry-After header value, either a number of seconds or an HTTP date
+     */
+    static Optional<Long> parseRetryAfter(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                long date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant().toEpochMilli();
+                return Optional.of(Math.max(0, date - System.currentTimeMillis()));
+            } catch (DateTimeParseException e2) {
+                return Optional.empty();
+            }
+        }
+    }
+}
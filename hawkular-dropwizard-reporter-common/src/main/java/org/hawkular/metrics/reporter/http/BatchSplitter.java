@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.reporter.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+
+/**
+ * Splits a metrics batch in two halves of series, so that series rejected by the server can be isolated by bisection
+ */
+final class BatchSplitter {
+
+    private static final String METRICS_PATH = "/metrics/raw";
+
+    private BatchSplitter() {
+    }
+
+    static boolean isMetricsBatch(Message msg) {
+        return "POST".equals(msg.getVerb()) && msg.getUrl().getPath().endsWith(METRICS_PATH);
+    }
+
+    /**
+     * @return the series of the batch, as pairs of metric type (such as "counters") and metric Json object, or an
+     * empty list if the content cannot be read as a metrics batch
+     */
+    static List<Map.Entry<String, JsonObject>> readSeries(Message msg) {
+        ByteBuffer content = msg.getContent();
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        List<Map.Entry<String, JsonObject>> series = new ArrayList<>();
+        try (JsonReader reader = Json.createReader(
+                new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, JsonValue> type : reader.readObject().entrySet()) {
+                for (JsonObject metric : ((JsonArray) type.getValue()).getValuesAs(JsonObject.class)) {
+                    series.add(new AbstractMap.SimpleImmutableEntry<>(type.getKey(), metric));
+                }
+            }
+        } catch (JsonException | ClassCastException e) {
+            return Collections.emptyList();
+        }
+        return series;
+    }
+
+    /**
+     * @return both halves of the series, in the same order
+     */
+    static List<List<Map.Entry<String, JsonObject>>> halves(List<Map.Entry<String, JsonObject>> series) {
+        int middle = series.size() / 2;
+        return Arrays.asList(series.subList(0, middle), series.subList(middle, series.size()));
+    }
+
+    /**
+     * @return a message holding the given series only
+     */
+    static Message withSeries(Message msg, List<Map.Entry<String, JsonObject>> series) {
+        return msg.withContent(write(series));
+    }
+
+    private static ByteBuffer write(List<Map.Entry<String, JsonObject>> series) {
+        Map<String, JsonArrayBuilder> arrays = new LinkedHashMap<>();
+        series.forEach(s -> arrays.computeIfAbsent(s.getKey(), k -> Json.createArrayBuilder()).add(s.getValue()));
+        JsonObjectBuilder builder = Json.createObjectBuilder();
+        arrays.forEach(builder::add);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonWriter writer = Json.createWriter(out)) {
+            writer.writeObject(builder.build());
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+}
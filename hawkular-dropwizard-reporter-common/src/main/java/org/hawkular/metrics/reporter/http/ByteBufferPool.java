@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.reporter.http;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Small pool of reusable direct buffers, used to encode payloads once and write them to the socket without
+ * intermediate String or byte[] copies
+ */
+public class ByteBufferPool {
+
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    /**
+     * @param maxPooled maximum number of buffers kept for reuse
+     */
+    public ByteBufferPool(int maxPooled) {
+        this.buffers = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * Get a cleared buffer of at least the given capacity
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        // Pooled buffers are few, so scanning them is cheaper than keeping them sorted by size
+        int size = buffers.size();
+        for (int i = 0; i < size; i++) {
+            ByteBuffer buffer = buffers.poll();
+            if (buffer == null) {
+                break;
+            }
+            if (buffer.capacity() >= minCapacity) {
+                buffer.clear();
+                return buffer;
+            }
+            // Too small: let it be garbage collected, the bigger one will be pooled instead
+        }
+        return ByteBuffer.allocateDirect(minCapacity);
+    }
+
+    /**
+     * Give a buffer back to the pool. It must not be used afterwards
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            buffers.offer(buffer);
+        }
+    }
+}
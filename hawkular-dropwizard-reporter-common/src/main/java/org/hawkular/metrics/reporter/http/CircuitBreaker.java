@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.reporter.http;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opens after some consecutive failures: requests are then not attempted, until the open duration has elapsed.
+ * A single request is then allowed as a probe (half-open state): its success closes the breaker, its failure opens it
+ * again for the same duration.
+ */
+final class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+    private static final long CLOSED = -1L;
+
+    private final int failureThreshold;
+    private final long openDurationMs;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openedAt = new AtomicLong(CLOSED);
+    private final AtomicBoolean probing = new AtomicBoolean(false);
+
+    CircuitBreaker(int failureThreshold, long openDurationMs) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Circuit breaker failure threshold must be at least 1");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDurationMs = openDurationMs;
+    }
+
+    boolean allowRequest() {
+        long opened = openedAt.get();
+        if (opened == CLOSED) {
+            return true;
+        }
+        if (System.currentTimeMillis() - opened < openDurationMs) {
+            return false;
+        }
+        return probing.compareAndSet(false, true);
+    }
+
+    void onSuccess() {
+        consecutiveFailures.set(0);
+        if (openedAt.getAndSet(CLOSED) != CLOSED) {
+            LOG.info("Hawkular server is reachable again, resuming requests");
+        }
+        probing.set(false);
+    }
+
+    void onFailure() {
+        long now = System.currentTimeMillis();
+        if (probing.get()) {
+            openedAt.set(now);
+            probing.set(false);
+        } else if (consecutiveFailures.incrementAndGet() >= failureThreshold && openedAt.compareAndSet(CLOSED, now)) {
+            LOG.warn("Hawkular server failed {} consecutive times, requests are suspended for {} ms",
+                    failureThreshold, openDurationMs);
+        }
+    }
+
+    boolean isOpen() {
+        return openedAt.get() != CLOSED;
+    }
+}
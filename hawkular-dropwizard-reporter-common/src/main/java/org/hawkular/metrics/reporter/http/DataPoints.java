@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.reporter.http;
+
+import java.util.Arrays;
+
+/**
+ * Data points of a single report, all at the same timestamp. Ids and values are stored in parallel arrays, so that
+ * collecting values neither boxes them nor allocates map entries. Instances are meant to be cleared and refilled at
+ * each report.
+ */
+public final class DataPoints {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] counterIds = new String[INITIAL_CAPACITY];
+    private long[] counterValues = new long[INITIAL_CAPACITY];
+    private int counterCount = 0;
+    private String[] gaugeIds = new String[INITIAL_CAPACITY];
+    private double[] gaugeValues = new double[INITIAL_CAPACITY];
+    private int gaugeCount = 0;
+
+    public void addCounter(String id, long value) {
+        if (counterCount == counterIds.length) {
+            counterIds = Arrays.copyOf(counterIds, counterCount * 2);
+            counterValues = Arrays.copyOf(counterValues, counterCount * 2);
+        }
+        counterIds[counterCount] = id;
+        counterValues[counterCount++] = value;
+    }
+
+    public void addGauge(String id, double value) {
+        if (gaugeCount == gaugeIds.length) {
+            gaugeIds = Arrays.copyOf(gaugeIds, gaugeCount * 2);
+            gaugeValues = Arrays.copyOf(gaugeValues, gaugeCount * 2);
+        }
+        gaugeIds[gaugeCount] = id;
+        gaugeValues[gaugeCount++] = value;
+    }
+
+    public int getCounterCount() {
+        return counterCount;
+    }
+
+    public String getCounterId(int i) {
+        return counterIds[i];
+    }
+
+    public long getCounterValue(int i) {
+        return counterValues[i];
+    }
+
+    public int getGaugeCount() {
+        return gaugeCount;
+    }
+
+    public String getGaugeId(int i) {
+        return gaugeIds[i];
+    }
+
+    public double getGaugeValue(int i) {
+        return gaugeValues[i];
+    }
+
+    public boolean isEmpty() {
+        return counterCount == 0 && gaugeCount == 0;
+    }
+
+    /**
+     * Remove all data points, keeping the allocated capacity
+     */
+    public void clear() {
+        // Ids are released, as their metrics may be removed from the registry
+        Arrays.fill(counterIds, 0, counterCount, null);
+        Arrays.fill(gaugeIds, 0, gaugeCount, null);
+        counterCount = 0;
+        gaugeCount = 0;
+    }
+}
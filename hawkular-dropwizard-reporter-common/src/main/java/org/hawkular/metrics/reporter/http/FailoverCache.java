@@ -0,0 +1,330 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.reporter.http;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory store of the requests that could not be sent to Hawkular, replayed later.<br/>
+ * A failover cache can be shared by several {@link JdkHawkularHttpClient}, each message remembering the headers of
+ * the client that created it.<br/>
+ * When downsampling is enabled and the cache is full, older metrics are rolled up into coarser resolution instead of
+ * being dropped, so that the same maximum size covers longer outages. See {@link MetricsRollup}<br/>
+ * With a byte budget, messages are compressed one by one into direct memory, so that the heap doesn't grow with
+ * outages, and the budget applies to compressed bytes.<br/>
+ * Tag requests are kept apart from metrics, with only the latest body for each resource, and are replayed on their
+ * own thread: they neither count in the maximum size nor delay metrics backfill.<br/>
+ * The cache must be closed once no client uses it anymore, to stop the tag replay thread.
+ */
+public class FailoverCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FailoverCache.class);
+
+    private volatile Optional<Long> failoverCacheDuration = Optional.empty();
+    private volatile Optional<Integer> failoverCacheMaxSize = Optional.empty();
+    private volatile Optional<Long> failoverCacheMaxBytes = Optional.empty();
+    private volatile boolean downsampling = false;
+    // Guarded by cache
+    private final LinkedList<Message> cache = new LinkedList<>();
+    private long storedBytes = 0;
+    // Guarded by itself
+    private final Map<Map.Entry<String, Map<String, String>>, Message> tagRequests = new LinkedHashMap<>();
+    private final AtomicBoolean tagReplayRunning = new AtomicBoolean(false);
+    // Guarded by this
+    private ExecutorService tagReplayExecutor;
+    private boolean closed = false;
+
+    public void setOptions(Optional<Long> failoverCacheDuration, Optional<Integer> failoverCacheMaxSize) {
+        this.failoverCacheDuration = failoverCacheDuration;
+        this.failoverCacheMaxSize = failoverCacheMaxSize;
+    }
+
+    /**
+     * Limit the bytes held by the cache. When set, messages are stored compressed in direct memory
+     */
+    public void setMaxBytes(Optional<Long> failoverCacheMaxBytes) {
+        this.failoverCacheMaxBytes = failoverCacheMaxBytes;
+    }
+
+    /**
+     * Roll older metrics up into coarser resolution instead of dropping them when the maximum size is reached
+     */
+    public void setDownsampling(boolean downsampling) {
+        this.downsampling = downsampling;
+    }
+
+    public Optional<Long> getDuration() {
+        return failoverCacheDuration;
+    }
+
+    public Optional<Integer> getMaxSize() {
+        return failoverCacheMaxSize;
+    }
+
+    public Optional<Long> getMaxBytes() {
+        return failoverCacheMaxBytes;
+    }
+
+    public boolean isDownsampling() {
+        return downsampling;
+    }
+
+    /**
+     * @param maxRequests maximum number of metrics requests to send, older requests being sent first
+     * @return the number of metrics requests sent
+     */
+    int replay(Consumer<Message> sender, int maxRequests) {
+        Long oldestAllowed = failoverCacheDuration.map(d -> System.currentTimeMillis() - d).orElse(0L);
+        replayTagRequests(sender, oldestAllowed);
+        // Elements might be added during the cache list processing, so get its size once for all and don't process more than that
+        int size;
+        synchronized (cache) {
+            size = cache.size();
+        }
+        int countTrashed = 0;
+        int sent = 0;
+        for (int i = 0; i < size && sent < maxRequests; i++) {
+            Message msg;
+            synchronized (cache) {
+                msg = poll();
+            }
+            if (msg == null) {
+                // Concurrently replayed by another client sharing this cache
+                break;
+            }
+            if (msg.getTimestamp() >= oldestAllowed) {
+                sender.accept(msg);
+                sent++;
+            } else {
+                countTrashed++;
+            }
+        }
+        if (countTrashed > 0) {
+            LOG.warn("Failover cache contained {} old items that have been trashed", countTrashed);
+        }
+        return sent;
+    }
+
+    private void replayTagRequests(Consumer<Message> sender, long oldestAllowed) {
+        synchronized (tagRequests) {
+            if (tagRequests.isEmpty()) {
+                return;
+            }
+        }
+        if (!tagReplayRunning.compareAndSet(false, true)) {
+            // Previous replay still running
+            return;
+        }
+        ExecutorService executor = tagReplayExecutor();
+        if (executor == null) {
+            tagReplayRunning.set(false);
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                List<Message> messages;
+                synchronized (tagRequests) {
+                    messages = new ArrayList<>(tagRequests.values());
+                    tagRequests.clear();
+                }
+                long countTrashed = messages.stream().filter(msg -> msg.getTimestamp() < oldestAllowed).count();
+                messages.stream().filter(msg -> msg.getTimestamp() >= oldestAllowed).forEach(sender);
+                if (countTrashed > 0) {
+                    LOG.warn("Failover cache contained {} old tag requests that have been trashed", countTrashed);
+                }
+            } finally {
+                tagReplayRunning.set(false);
+            }
+        });
+    }
+
+    /**
+     * @return the executor replaying tag requests, or null once the cache is closed
+     */
+    private synchronized ExecutorService tagReplayExecutor() {
+        if (tagReplayExecutor == null && !closed) {
+            tagReplayExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "hawkular-tags-replay");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return tagReplayExecutor;
+    }
+
+    /**
+     * Stop the tag replay thread. A replay in progress is completed, cached requests are not replayed anymore
+     */
+    public void close() {
+        ExecutorService executor;
+        synchronized (this) {
+            closed = true;
+            executor = tagReplayExecutor;
+            tagReplayExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    void add(Message msg) {
+        if (isTagRequest(msg)) {
+            addTagRequest(msg);
+            return;
+        }
+        Optional<Long> maxBytes = failoverCacheMaxBytes;
+        // Compressed before locking, so that replay isn't held during compression
+        Message stored = maxBytes.isPresent() ? msg.compress() : msg;
+        if (maxBytes.isPresent() && stored.getStoredSize() > maxBytes.get()) {
+            LOG.warn("Request of {} compressed bytes does not fit in failover cache ({} bytes), it is lost.",
+                    stored.getStoredSize(), maxBytes.get());
+            return;
+        }
+        synchronized (cache) {
+            maxBytes.ifPresent(max -> {
+                while (downsampling && storedBytes + stored.getStoredSize() > max && rollUp()) {
+                    // Each roll-up frees some bytes
+                }
+                if (storedBytes + stored.getStoredSize() > max) {
+                    LOG.warn("Failover cache reached its maximum capacity ({} bytes). Oldest elements will be lost.", max);
+                }
+                while (storedBytes + stored.getStoredSize() > max) {
+                    poll();
+                }
+            });
+            failoverCacheMaxSize.ifPresent(max -> {
+                while (downsampling && cache.size() >= max && rollUp()) {
+                    // Each roll-up frees one slot
+                }
+                int size = cache.size();
+                if (size >= max) {
+                    LOG.warn("Failover cache reached its maximum capacity ({} requests). Oldest elements will be lost.", max);
+                }
+                while (size >= max) {
+                    // Trash oldest items
+                    poll();
+                    size--;
+                }
+            });
+            if (cache.isEmpty()) {
+                LOG.info("Failed to send data to Hawkular. Data is kept in memory and will be sent again later. More info on DEBUG logs.");
+            }
+            cache.offer(stored);
+            storedBytes += stored.getStoredSize();
+        }
+    }
+
+    private static boolean isTagRequest(Message msg) {
+        return "PUT".equals(msg.getVerb()) && msg.getUrl().getPath().endsWith("/tags");
+    }
+
+    private void addTagRequest(Message msg) {
+        // Headers are part of the key, as tenants sharing this cache may have series with the same path
+        Map.Entry<String, Map<String, String>> key =
+                new AbstractMap.SimpleImmutableEntry<>(msg.getUrl().toExternalForm(), msg.getHeaders());
+        synchronized (tagRequests) {
+            // A failed replay must not override tags that were updated in between
+            tagRequests.merge(key, msg, (kept, added) -> added.getTimestamp() >= kept.getTimestamp() ? added : kept);
+        }
+    }
+
+    private Message poll() {
+        Message msg = cache.poll();
+        if (msg != null) {
+            storedBytes -= msg.getStoredSize();
+        }
+        return msg;
+    }
+
+    /**
+     * Roll up two adjacent messages. Oldest messages of the same resolution are merged first, so that resolution
+     * decreases with age; otherwise the newest pair that can be merged is used.
+     * @return false if no messages could be rolled up
+     */
+    private boolean rollUp() {
+        int fallback = -1;
+        Message previous = null;
+        int index = 0;
+        for (Message current : cache) {
+            if (previous != null && MetricsRollup.canRollUp(previous, current)) {
+                if (previous.getLevel() == current.getLevel()) {
+                    return rollUpAt(index - 1);
+                }
+                fallback = index - 1;
+            }
+            previous = current;
+            index++;
+        }
+        return fallback >= 0 && rollUpAt(fallback);
+    }
+
+    private boolean rollUpAt(int index) {
+        Message older = cache.get(index);
+        Message newer = cache.get(index + 1);
+        Optional<Message> rolledUp = MetricsRollup.rollUp(older, newer);
+        if (!rolledUp.isPresent()) {
+            return false;
+        }
+        Message stored = failoverCacheMaxBytes.isPresent() ? rolledUp.get().compress() : rolledUp.get();
+        LOG.debug("Failover cache is full, rolled up data to level {}", stored.getLevel());
+        cache.set(index, stored);
+        cache.remove(index + 1);
+        storedBytes += stored.getStoredSize() - older.getStoredSize() - newer.getStoredSize();
+        return true;
+    }
+
+    /**
+     * Number of cached metrics requests, bounded by the maximum size. Tag requests are counted apart, see
+     * {@link #tagRequestsSize()}
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Number of cached tag requests, at most one per series
+     */
+    public int tagRequestsSize() {
+        synchronized (tagRequests) {
+            return tagRequests.size();
+        }
+    }
+
+    /**
+     * Number of bytes held by the cached metrics requests, compressed when a byte budget is set
+     */
+    public long sizeInBytes() {
+        synchronized (cache) {
+            return storedBytes;
+        }
+    }
+}
@@ -16,6 +16,9 @@
  */
 package org.hawkular.metrics.reporter.http;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
 
@@ -26,7 +29,95 @@ import java.util.Optional;
 public interface HawkularHttpClient {
     void addHeaders(Map<String, String> headers);
     HawkularHttpResponse postMetrics(String jsonBody);
+
+    /**
+     * Store metrics to be sent later with the failover data, without attempting to send them now.<br/>
+     * Clients without failover cache send them immediately.
+     */
+    default void deferMetrics(String jsonBody) {
+        postMetrics(jsonBody);
+    }
+
     HawkularHttpResponse putTags(String resourcePath, String jsonBody);
+
+    /**
+     * Delete tags of a series, as PUT only adds or updates tags.<br/>
+     * Ignored by clients that don't support it: the tags then stay on the series.
+     * @param resourcePath tags path of the series, as for {@link #putTags(String, String)}
+     * @param tagNames names of the tags to delete
+     */
+    default HawkularHttpResponse deleteTags(String resourcePath, Collection<String> tagNames) {
+        return null;
+    }
+
+    /**
+     * Post metrics from an UTF-8 encoded body. The buffer is not retained after the call returns, so it can be reused
+     * by the caller.
+     */
+    default HawkularHttpResponse postMetrics(ByteBuffer jsonBody) {
+        return postMetrics(StandardCharsets.UTF_8.decode(jsonBody.duplicate()).toString());
+    }
+
+    /**
+     * Put tags from an UTF-8 encoded body. The buffer is not retained after the call returns, so it can be reused
+     * by the caller.
+     */
+    default HawkularHttpResponse putTags(String resourcePath, ByteBuffer jsonBody) {
+        return putTags(resourcePath, StandardCharsets.UTF_8.decode(jsonBody.duplicate()).toString());
+    }
+
+    /**
+     * Same as {@link #deferMetrics(String)}, from an UTF-8 encoded body that is not retained after the call returns
+     */
+    default void deferMetrics(ByteBuffer jsonBody) {
+        deferMetrics(StandardCharsets.UTF_8.decode(jsonBody.duplicate()).toString());
+    }
     void setFailoverOptions(Optional<Long> failoverCacheDuration, Optional<Integer> failoverCacheMaxSize);
+
+    /**
+     * Set the connect and read timeouts of requests, in milliseconds. 0 means no timeout.<br/>
+     * Ignored by clients that don't support it.
+     */
+    default void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+    }
+
+    /**
+     * Set how requests back off when the server signals pressure (HTTP 429 or 503): they go to the failover cache for
+     * at least the time required by Retry-After. Consecutive signals double the pause from the initial delay, up to the
+     * maximum, and successful requests shorten it again. After a pause, the failover backlog is replayed progressively
+     * rather than in one burst.<br/>
+     * Ignored by clients that don't support it.
+     */
+    default void setBackoff(long initialDelayMs, long maxDelayMs) {
+    }
+
+    /**
+     * Stop attempting requests after some consecutive failures: they go straight to the failover cache instead, until
+     * a single request probes the server again once the open duration has elapsed.<br/>
+     * Ignored by clients that don't support it.
+     */
+    default void setCircuitBreaker(int failureThreshold, long openDurationMs) {
+    }
+
+    /**
+     * Limit the failover cache by bytes rather than by number of requests. Cached requests are then compressed and
+     * held in direct memory.<br/>
+     * Ignored by clients without failover cache.
+     */
+    default void setFailoverCacheMaxBytes(Optional<Long> failoverCacheMaxBytes) {
+    }
+
+    /**
+     * Roll older failover data up into coarser resolution instead of dropping it when the failover cache is full.<br/>
+     * Ignored by clients without failover cache.
+     */
+    default void setFailoverDownsampling(boolean downsampling) {
+    }
     void manageFailover();
+
+    /**
+     * Release resources held by the client, once it is not used anymore
+     */
+    default void close() {
+    }
 }
@@ -16,6 +16,7 @@
  */
 package org.hawkular.metrics.reporter.http;
 
+import java.io.OutputStream;
 import java.util.Map;
 import java.util.function.BiFunction;
 
@@ -24,6 +25,7 @@ import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonGenerator;
 
 /**
  * Some Json utility for Hawkular data model
@@ -47,6 +49,134 @@ public final class HawkularJson {
         return builder.build().toString();
     }
 
+    /**
+     * Serialize several data points per metric, as when several collection cycles are sent at once
+     * @param counters data points per counter id, as timestamp -&gt; value
+     * @param gauges data points per gauge id, as timestamp -&gt; value
+     */
+    public static String batchToString(Map<String, ? extends Map<Long, Long>> counters,
+                                       Map<String, ? extends Map<Long, Double>> gauges) {
+        JsonObjectBuilder builder = Json.createObjectBuilder();
+        if (!counters.isEmpty()) {
+            builder.add("counters", batchJson(counters, HawkularJson::longDataPoint));
+        }
+        if (!gauges.isEmpty()) {
+            builder.add("gauges", batchJson(gauges, HawkularJson::doubleDataPoint));
+        }
+        return builder.build().toString();
+    }
+
+    /**
+     * Same as {@link #metricsToString(Long, Map, Map)}, streamed as UTF-8 to the output without building the
+     * intermediate Json tree nor String
+     */
+    public static void writeMetrics(OutputStream out,
+                                    long timestamp,
+                                    Map<String, Long> counters,
+                                    Map<String, Double> gauges) {
+        try (JsonGenerator generator = Json.createGenerator(out)) {
+            generator.writeStartObject();
+            if (!counters.isEmpty()) {
+                generator.writeStartArray("counters");
+                counters.forEach((name, value) -> {
+                    startMetric(generator, name);
+                    generator.writeStartObject().write("timestamp", timestamp).write("value", value).writeEnd();
+                    endMetric(generator);
+                });
+                generator.writeEnd();
+            }
+            if (!gauges.isEmpty()) {
+                generator.writeStartArray("gauges");
+                gauges.forEach((name, value) -> {
+                    startMetric(generator, name);
+                    generator.writeStartObject().write("timestamp", timestamp).write("value", value).writeEnd();
+                    endMetric(generator);
+                });
+                generator.writeEnd();
+            }
+            generator.writeEnd();
+        }
+    }
+
+    /**
+     * Same as {@link #writeMetrics(OutputStream, long, Map, Map)}, reading values from primitive storage
+     */
+    public static void writeMetrics(OutputStream out, long timestamp, DataPoints points) {
+        try (JsonGenerator generator = Json.createGenerator(out)) {
+            generator.writeStartObject();
+            if (points.getCounterCount() > 0) {
+                generator.writeStartArray("counters");
+                for (int i = 0; i < points.getCounterCount(); i++) {
+                    startMetric(generator, points.getCounterId(i));
+                    generator.writeStartObject()
+                            .write("timestamp", timestamp)
+                            .write("value", points.getCounterValue(i))
+                            .writeEnd();
+                    endMetric(generator);
+                }
+                generator.writeEnd();
+            }
+            if (points.getGaugeCount() > 0) {
+                generator.writeStartArray("gauges");
+                for (int i = 0; i < points.getGaugeCount(); i++) {
+                    startMetric(generator, points.getGaugeId(i));
+                    generator.writeStartObject()
+                            .write("timestamp", timestamp)
+                            .write("value", points.getGaugeValue(i))
+                            .writeEnd();
+                    endMetric(generator);
+                }
+                generator.writeEnd();
+            }
+            generator.writeEnd();
+        }
+    }
+
+    /**
+     * Same as {@link #batchToString(Map, Map)}, streamed as UTF-8 to the output without building the intermediate
+     * Json tree nor String
+     */
+    public static void writeBatch(OutputStream out,
+                                  Map<String, ? extends Map<Long, Long>> counters,
+                                  Map<String, ? extends Map<Long, Double>> gauges) {
+        try (JsonGenerator generator = Json.createGenerator(out)) {
+            generator.writeStartObject();
+            if (!counters.isEmpty()) {
+                generator.writeStartArray("counters");
+                counters.forEach((name, points) -> {
+                    startMetric(generator, name);
+                    points.forEach((timestamp, value) -> generator.writeStartObject()
+                            .write("timestamp", timestamp)
+                            .write("value", value)
+                            .writeEnd());
+                    endMetric(generator);
+                });
+                generator.writeEnd();
+            }
+            if (!gauges.isEmpty()) {
+                generator.writeStartArray("gauges");
+                gauges.forEach((name, points) -> {
+                    startMetric(generator, name);
+                    points.forEach((timestamp, value) -> generator.writeStartObject()
+                            .write("timestamp", timestamp)
+                            .write("value", value)
+                            .writeEnd());
+                    endMetric(generator);
+                });
+                generator.writeEnd();
+            }
+            generator.writeEnd();
+        }
+    }
+
+    private static void startMetric(JsonGenerator generator, String name) {
+        generator.writeStartObject().write("id", name).writeStartArray("dataPoints");
+    }
+
+    private static void endMetric(JsonGenerator generator) {
+        generator.writeEnd().writeEnd();
+    }
+
     public static String tagsToString(Map<String, String> tags) {
         JsonObjectBuilder jsonObjectBuilder = Json.createObjectBuilder();
         tags.forEach(jsonObjectBuilder::add);
@@ -63,6 +193,20 @@ public final class HawkularJson {
         return builder.build();
     }
 
+    private static <T> JsonArray batchJson(Map<String, ? extends Map<Long, T>> metricsPoints,
+                                           BiFunction<Long, T, JsonObject> bf) {
+        final JsonArrayBuilder builder = Json.createArrayBuilder();
+        metricsPoints.forEach((name, points) -> {
+            JsonArrayBuilder dataPoints = Json.createArrayBuilder();
+            points.forEach((timestamp, value) -> dataPoints.add(bf.apply(timestamp, value)));
+            builder.add(Json.createObjectBuilder()
+                    .add("id", name)
+                    .add("dataPoints", dataPoints.build())
+                    .build());
+        });
+        return builder.build();
+    }
+
     private static JsonObject metricJson(String name, JsonObject dataPoint) {
         return Json.createObjectBuilder()
                 .add("id", name)
@@ -16,19 +16,33 @@
  */
 package org.hawkular.metrics.reporter.http;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.json.JsonObject;
 
+import org.hawkular.metrics.reporter.jfr.FlightRecording;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,16 +53,45 @@ import org.slf4j.LoggerFactory;
  */
 public class JdkHawkularHttpClient implements HawkularHttpClient {
 
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000; // In milliseconds
+    public static final int DEFAULT_READ_TIMEOUT = 30000; // In milliseconds
+    public static final long DEFAULT_BACKOFF_INITIAL_DELAY = 1000L; // In milliseconds
+    public static final long DEFAULT_BACKOFF_MAX_DELAY = 1000L * 60L * 5L; // In milliseconds
+
     private static final Logger LOG = LoggerFactory.getLogger(JdkHawkularHttpClient.class);
+    private static final byte[] DISCARD_BUFFER = new byte[2 * 1024];
+    private static final int MAX_LOGGED_REJECTIONS = 1000;
+    // Bisecting down to 2 rejected series costs up to 4 requests per level
+    private static final int ISOLATION_REQUESTS_PER_LEVEL = 4;
 
     private final String uri;
     private final Map<String, String> headers = new HashMap<>();
-    private Optional<Long> failoverCacheDuration = Optional.empty();
-    private Optional<Integer> failoverCacheMaxSize = Optional.empty();
-    private Queue<Message> failoverCache = new LinkedBlockingQueue<>();
+    private final FailoverCache failoverCache;
+    private final boolean ownFailoverCache;
+    private volatile boolean captureResponseContent = false;
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+    private volatile Optional<CircuitBreaker> circuitBreaker = Optional.empty();
+    private final Set<String> rejectedSeries = ConcurrentHashMap.newKeySet();
+    private volatile Backoff backoff = new Backoff(DEFAULT_BACKOFF_INITIAL_DELAY, DEFAULT_BACKOFF_MAX_DELAY);
 
     public JdkHawkularHttpClient(String uri) {
+        this(uri, new FailoverCache(), true);
+    }
+
+    /**
+     * @param uri base uri - do not include Hawkular Metrics path (/hawkular/metrics)
+     * @param failoverCache failover cache, that may be shared with other clients. It is configured by its owner:
+     *                      failover settings of this client are only checked against it
+     */
+    public JdkHawkularHttpClient(String uri, FailoverCache failoverCache) {
+        this(uri, failoverCache, false);
+    }
+
+    private JdkHawkularHttpClient(String uri, FailoverCache failoverCache, boolean ownFailoverCache) {
         this.uri = uri + "/hawkular/metrics";
+        this.failoverCache = failoverCache;
+        this.ownFailoverCache = ownFailoverCache;
     }
 
     @Override
@@ -58,12 +101,56 @@ public class JdkHawkularHttpClient implements HawkularHttpClient {
 
     @Override
     public HawkularHttpResponse postMetrics(String jsonBody) {
-        return buildURLAndSend("POST", "/metrics/raw", jsonBody.getBytes());
+        return buildURLAndSend("POST", "/metrics/raw", ByteBuffer.wrap(jsonBody.getBytes(UTF_8)), true);
+    }
+
+    @Override
+    public HawkularHttpResponse postMetrics(ByteBuffer jsonBody) {
+        return buildURLAndSend("POST", "/metrics/raw", jsonBody, false);
+    }
+
+    @Override
+    public void deferMetrics(String jsonBody) {
+        deferMetrics(ByteBuffer.wrap(jsonBody.getBytes(UTF_8)), true);
+    }
+
+    @Override
+    public void deferMetrics(ByteBuffer jsonBody) {
+        deferMetrics(jsonBody, false);
+    }
+
+    private void deferMetrics(ByteBuffer jsonBody, boolean ownContent) {
+        try {
+            failoverCache.add(new Message("POST", new URL(uri + "/metrics/raw"), jsonBody, ownContent, headers)
+                    .retain());
+        } catch (MalformedURLException e) {
+            LOG.error("Bad URL", e);
+        }
     }
 
     @Override
     public HawkularHttpResponse putTags(String resourcePath, String jsonBody) {
-        return buildURLAndSend("PUT", resourcePath, jsonBody.getBytes());
+        return buildURLAndSend("PUT", resourcePath, ByteBuffer.wrap(jsonBody.getBytes(UTF_8)), true);
+    }
+
+    @Override
+    public HawkularHttpResponse putTags(String resourcePath, ByteBuffer jsonBody) {
+        return buildURLAndSend("PUT", resourcePath, jsonBody, false);
+    }
+
+    @Override
+    public HawkularHttpResponse deleteTags(String resourcePath, Collection<String> tagNames) {
+        String names = tagNames.stream().map(JdkHawkularHttpClient::encodePathSegment)
+                .collect(Collectors.joining(","));
+        return buildURLAndSend("DELETE", resourcePath + "/" + names, ByteBuffer.allocate(0), true);
+    }
+
+    private static String encodePathSegment(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     public HawkularHttpResponse readMetric(String type, String name) throws IOException {
@@ -71,7 +158,8 @@ public class JdkHawkularHttpClient implements HawkularHttpClient {
         return get(url);
     }
 
-    private HawkularHttpResponse buildURLAndSend(String verb, String resourcePath, byte[] content) {
+    private HawkularHttpResponse buildURLAndSend(String verb, String resourcePath, ByteBuffer content,
+                                                 boolean ownContent) {
         final URL url;
         try {
             url = new URL(uri + resourcePath);
@@ -79,52 +167,155 @@ public class JdkHawkularHttpClient implements HawkularHttpClient {
             LOG.error("Bad URL", e);
             return new HawkularHttpResponse("", -1, "Message not sent, bad URL: " + e.getMessage());
         }
-        return sendAndHandleError(new Message(verb, url, content));
+        return sendAndHandleError(new Message(verb, url, content, ownContent, headers));
     }
 
     private HawkularHttpResponse sendAndHandleError(Message msg) {
+        return sendAndHandleError(msg, true);
+    }
+
+    /**
+     * @param isolate bisect a rejected metrics batch; otherwise the rejection is left to the caller
+     */
+    private HawkularHttpResponse sendAndHandleError(Message msg, boolean isolate) {
+        Backoff currentBackoff = backoff;
+        if (currentBackoff.isPaused()) {
+            // Keep data locally rather than adding to the server load
+            failoverCache.add(msg.retain());
+            return new HawkularHttpResponse("", -1, "Message not sent: backing off");
+        }
+        // Checked last: once allowed, the request is a probe that must end with an outcome for the breaker
+        Optional<CircuitBreaker> breaker = circuitBreaker;
+        if (breaker.isPresent() && !breaker.get().allowRequest()) {
+            failoverCache.add(msg.retain());
+            return new HawkularHttpResponse("", -1, "Message not sent: circuit breaker is open");
+        }
+        boolean outcome = false;
         try {
             HawkularHttpResponse response = send(msg);
             int code = response.getResponseCode();
-            if (code >= 400) {
-                LOG.debug("Server response: {}, {}", code, response.getErrorMsg());
-                addToFailoverCache(msg);
+            if (code < 400) {
+                currentBackoff.onSuccess();
+            }
+            // Client errors and pressure signals show that the server is reachable, they don't count as failures
+            // for the breaker
+            if (code >= 500 && code != 503) {
+                breaker.ifPresent(CircuitBreaker::onFailure);
+            } else {
+                breaker.ifPresent(CircuitBreaker::onSuccess);
+            }
+            outcome = true;
+            if (isRejectedBatch(msg, code)) {
+                if (isolate) {
+                    isolateRejected(msg, response);
+                }
+            } else if (code >= 400) {
+                LOG.debug("Server response: {}, {}, {}", code, response.getErrorMsg(), response.getContent());
+                failoverCache.add(msg.retain());
             } else if (code != 200 && code != 204) {
                 LOG.debug("Server response: {}, {}", code, response.getErrorMsg());
             }
             return response;
         } catch (IOException e) {
             LOG.debug("Failed to send data:", e);
-            addToFailoverCache(msg);
+            failoverCache.add(msg.retain());
             return new HawkularHttpResponse("", -1, "Message not sent: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Such as failover content that can't be read back: it would fail the same way on each replay
+            LOG.warn("Failed to send data, it is dropped", e);
+            return new HawkularHttpResponse("", -1, "Message not sent: " + e.getMessage());
+        } finally {
+            if (!outcome) {
+                // Any exception counts as a failure, so that a probe never stays in flight
+                breaker.ifPresent(CircuitBreaker::onFailure);
+            }
+        }
+    }
+
+    private static boolean isRejectedBatch(Message msg, int code) {
+        return (code == 400 || code == 422) && BatchSplitter.isMetricsBatch(msg);
+    }
+
+    /**
+     * Bisect a metrics batch that was rejected as invalid, so that the valid series are delivered while the series
+     * rejected on their own are dropped. Every rejected half is bisected further, within a budget of extra requests
+     * that grows with the logarithm of the batch size: enough to isolate a couple of rejected series. Once it is
+     * spent, rejected parts are dropped as a whole.<br/>
+     * Rejected data never goes to the failover cache, as it would be rejected again on replay. Parts that fail for
+     * other reasons, such as a server error, go to the failover cache as usual.
+     */
+    private void isolateRejected(Message msg, HawkularHttpResponse response) {
+        List<Map.Entry<String, JsonObject>> series = BatchSplitter.readSeries(msg);
+        if (series.isEmpty()) {
+            // Nothing to isolate
+            failoverCache.add(msg.retain());
+            return;
+        }
+        int[] budget = {ISOLATION_REQUESTS_PER_LEVEL * (32 - Integer.numberOfLeadingZeros(series.size() - 1))};
+        bisect(msg, series, response, budget);
+    }
+
+    private void bisect(Message msg, List<Map.Entry<String, JsonObject>> series, HawkularHttpResponse response,
+                        int[] budget) {
+        if (series.size() == 1) {
+            String rejected = series.get(0).getKey() + " " + series.get(0).getValue().getString("id", "");
+            // Logged once per series, as it may be rejected again every cycle
+            if (rejectedSeries.size() < MAX_LOGGED_REJECTIONS && rejectedSeries.add(rejected)) {
+                LOG.warn("Hawkular rejected {} ({}), its data is dropped", rejected, response.getErrorMsg());
+            }
+            LOG.debug("Rejected {}: {}", rejected, response.getContent());
+            return;
+        }
+        if (budget[0] < 2) {
+            LOG.warn("Hawkular rejected a batch of {} series ({}), it is dropped", series.size(),
+                    response.getErrorMsg());
+            return;
+        }
+        for (List<Map.Entry<String, JsonObject>> half : BatchSplitter.halves(series)) {
+            budget[0]--;
+            Message halfMsg = BatchSplitter.withSeries(msg, half);
+            HawkularHttpResponse halfResponse = sendAndHandleError(halfMsg, false);
+            if (isRejectedBatch(halfMsg, halfResponse.getResponseCode())) {
+                bisect(halfMsg, half, halfResponse, budget);
+            }
         }
     }
 
     private HawkularHttpResponse send(Message message) throws IOException {
-        InputStream is = null;
-        byte[] data = null;
         int responseCode = -1;
-        ByteArrayOutputStream baos = null;
+        FlightRecording.HttpRequest event = FlightRecording.startHttpRequest(message.getVerb(),
+                message.getUrl().getPath());
         try {
-            final HttpURLConnection connection = (HttpURLConnection) message.getUrl().openConnection();
-            connection.setDoOutput(true);
-            connection.setUseCaches(false);
-            connection.setRequestMethod(message.getVerb());
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setRequestProperty("Content-Length", String.valueOf(message.getContent().length));
-            headers.forEach(connection::setRequestProperty);
-            OutputStream os = connection.getOutputStream();
-            os.write(message.getContent());
-            os.close();
+            ByteBuffer content = message.getContent();
+            if (event != null) {
+                event.setBytes(content.remaining());
+            }
+            HttpURLConnection connection;
+            try {
+                connection = exchange(message, content.duplicate());
+            } catch (SocketTimeoutException e) {
+                throw e;
+            } catch (IOException e) {
+                // A kept-alive connection may have been closed by the server meanwhile. HttpURLConnection only
+                // retries by itself when it buffers the body: retry once, on another connection
+                LOG.debug("Failed to send data, retrying: {}", e.toString());
+                connection = exchange(message, content.duplicate());
+            }
             responseCode = connection.getResponseCode();
-            is = connection.getInputStream();
-            final byte[] buffer = new byte[2 * 1024];
-            baos = new ByteArrayOutputStream();
-            int n;
-            while ((n = is.read(buffer)) >= 0) {
-                baos.write(buffer, 0, n);
+            if (responseCode == 429 || responseCode == 503) {
+                long pause = backoff.onPressure(Backoff.parseRetryAfter(connection.getHeaderField("Retry-After")));
+                LOG.warn("Hawkular server signals pressure (HTTP {}), requests are paused for {} ms", responseCode,
+                        pause);
             }
-            data = baos.toByteArray();
+            // Callers only check the status of write requests: the body is drained, so that the connection can be
+            // kept alive, but only read when someone may look at it
+            boolean capture = captureResponseContent || LOG.isDebugEnabled();
+            if (responseCode >= 400) {
+                String errorContent = readOrDrain(connection.getErrorStream(), capture);
+                return new HawkularHttpResponse(errorContent, responseCode,
+                        "HTTP " + responseCode + " " + connection.getResponseMessage());
+            }
+            return new HawkularHttpResponse(readOrDrain(connection.getInputStream(), capture), responseCode);
         } catch (IOException e) {
             if (responseCode > 0) {
                 return new HawkularHttpResponse("", responseCode, e.getMessage());
@@ -132,14 +323,69 @@ public class JdkHawkularHttpClient implements HawkularHttpClient {
                 throw e;
             }
         } finally {
-            if (is != null) {
-                is.close();
+            if (event != null) {
+                event.finish(responseCode);
             }
-            if (baos != null) {
-                baos.close();
+        }
+    }
+
+    private static String readOrDrain(InputStream is, boolean capture) throws IOException {
+        if (is == null) {
+            return "";
+        }
+        try {
+            if (capture) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[2 * 1024];
+                int n;
+                while ((n = is.read(buffer)) >= 0) {
+                    baos.write(buffer, 0, n);
+                }
+                return new String(baos.toByteArray(), UTF_8);
+            }
+            // Content is thrown away, so all threads can share the same buffer
+            while (is.read(DISCARD_BUFFER) >= 0) {
+                // Drain
+            }
+            return "";
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Open a connection and write the request
+     */
+    private HttpURLConnection exchange(Message message, ByteBuffer content) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) message.getUrl().openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setDoOutput(true);
+        connection.setUseCaches(false);
+        connection.setRequestMethod(message.getVerb());
+        connection.setRequestProperty("Content-Type", "application/json");
+        // Streamed as written: otherwise the connection buffers the whole body in its own array to compute the
+        // Content-Length header, that can't be set by hand
+        connection.setFixedLengthStreamingMode(content.remaining());
+        message.getHeaders().forEach(connection::setRequestProperty);
+        OutputStream os = connection.getOutputStream();
+        writeContent(content, os);
+        os.close();
+        // Reads the status line, where a closed connection shows up
+        connection.getResponseCode();
+        return connection;
+    }
+
+    private static void writeContent(ByteBuffer content, OutputStream os) throws IOException {
+        if (content.hasArray()) {
+            os.write(content.array(), content.arrayOffset() + content.position(), content.remaining());
+        } else {
+            // Direct buffer: written by chunks through the channel, without copying the whole content
+            WritableByteChannel channel = Channels.newChannel(os);
+            while (content.hasRemaining()) {
+                channel.write(content);
             }
         }
-        return new HawkularHttpResponse(new String(data), responseCode);
     }
 
     private HawkularHttpResponse get(URL url) throws IOException {
@@ -149,6 +395,8 @@ public class JdkHawkularHttpClient implements HawkularHttpClient {
         ByteArrayOutputStream baos = null;
         try {
             final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
             connection.setRequestMethod("GET");
             connection.setRequestProperty("Content-Type", "application/json");
             headers.forEach(connection::setRequestProperty);
@@ -174,78 +422,114 @@ public class JdkHawkularHttpClient implements HawkularHttpClient {
 
     @Override
     public void setFailoverOptions(Optional<Long> failoverCacheDuration, Optional<Integer> failoverCacheMaxSize) {
-        this.failoverCacheDuration = failoverCacheDuration;
-        this.failoverCacheMaxSize = failoverCacheMaxSize;
+        if (ownFailoverCache) {
+            failoverCache.setOptions(failoverCacheDuration, failoverCacheMaxSize);
+        } else {
+            checkSharedSetting("duration", failoverCache.getDuration(), failoverCacheDuration);
+            checkSharedSetting("maximum size", failoverCache.getMaxSize(), failoverCacheMaxSize);
+        }
     }
 
     @Override
-    public void manageFailover() {
-        Long oldestAllowed = failoverCacheDuration.map(d -> System.currentTimeMillis() - d).orElse(0L);
-        // Elements might be added during the cache list processing, so get its size once for all and don't process more than that
-        int size = failoverCache.size();
-        int countTrashed = 0;
-        for (int i = 0; i < size; i++) {
-            Message msg = failoverCache.poll();
-            if (msg.getTimestamp() >= oldestAllowed) {
-                sendAndHandleError(msg);
-            } else {
-                countTrashed++;
-            }
-        }
-        if (countTrashed > 0) {
-            LOG.warn("Failover cache contained {} old items that have been trashed", countTrashed);
-        }
+    public void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+        this.connectTimeout = connectTimeoutMs;
+        this.readTimeout = readTimeoutMs;
     }
 
-    private void addToFailoverCache(Message msg) {
-        failoverCacheMaxSize.ifPresent(max -> {
-            int size = failoverCache.size();
-            if (size >= max) {
-                LOG.warn("Failover cache reached its maximum capacity ({} requests). Oldest elements will be lost.", max);
-            }
-            while (size >= max) {
-                // Trash oldest items
-                failoverCache.poll();
-                size--;
-            }
-        });
-        if (failoverCache.isEmpty()) {
-            LOG.info("Failed to send data to Hawkular. Data is kept in memory and will be sent again later. More info on DEBUG logs.");
-        }
-        failoverCache.offer(msg);
+    @Override
+    public void setBackoff(long initialDelayMs, long maxDelayMs) {
+        this.backoff = new Backoff(initialDelayMs, maxDelayMs);
     }
 
-    public int getFailoverCacheSize() {
-        return failoverCache.size();
+    @Override
+    public void setCircuitBreaker(int failureThreshold, long openDurationMs) {
+        this.circuitBreaker = Optional.of(new CircuitBreaker(failureThreshold, openDurationMs));
     }
 
-    private static class Message {
-        private final String verb;
-        private final URL url;
-        private final byte[] content;
-        private final long timestamp;
-
-        private Message(String verb, URL url, byte[] content) {
-            this.verb = verb;
-            this.url = url;
-            this.content = content;
-            this.timestamp = System.currentTimeMillis();
+    @Override
+    public void setFailoverCacheMaxBytes(Optional<Long> failoverCacheMaxBytes) {
+        if (ownFailoverCache) {
+            failoverCache.setMaxBytes(failoverCacheMaxBytes);
+        } else {
+            checkSharedSetting("maximum bytes", failoverCache.getMaxBytes(), failoverCacheMaxBytes);
         }
+    }
 
-        String getVerb() {
-            return verb;
+    @Override
+    public void setFailoverDownsampling(boolean downsampling) {
+        if (ownFailoverCache) {
+            failoverCache.setDownsampling(downsampling);
+        } else {
+            checkSharedSetting("downsampling", failoverCache.isDownsampling(), downsampling);
         }
+    }
 
-        URL getUrl() {
-            return url;
+    private static void checkSharedSetting(String name, Object shared, Object requested) {
+        if (!shared.equals(requested)) {
+            LOG.warn("The failover cache is shared: its {} stays {}, {} is ignored", name, shared, requested);
         }
+    }
 
-        byte[] getContent() {
-            return content;
+    @Override
+    public void manageFailover() {
+        Backoff currentBackoff = backoff;
+        if (currentBackoff.isPaused()) {
+            // Requests would go back to the cache
+            return;
         }
+        long signals = currentBackoff.getSignals();
+        int budget = currentBackoff.getReplayBudget();
+        int replayed = failoverCache.replay(this::sendAndHandleError, budget);
+        currentBackoff.onReplayed(signals, budget, replayed);
+    }
 
-        Long getTimestamp() {
-            return timestamp;
+    /**
+     * Keep the content of responses to POST and PUT requests, for diagnostic. By default it is discarded, unless
+     * debug logging is enabled
+     */
+    public void setCaptureResponseContent(boolean captureResponseContent) {
+        this.captureResponseContent = captureResponseContent;
+    }
+
+    /**
+     * @return true while requests are suspended by the circuit breaker, including while a probe is in flight
+     */
+    public boolean isCircuitBreakerOpen() {
+        return circuitBreaker.map(CircuitBreaker::isOpen).orElse(false);
+    }
+
+    /**
+     * @return true while requests are paused because the server signaled pressure
+     */
+    public boolean isBackingOff() {
+        return backoff.isPaused();
+    }
+
+    /**
+     * Closes the failover cache, unless it was provided to this client, in which case its owner closes it
+     */
+    @Override
+    public void close() {
+        if (ownFailoverCache) {
+            failoverCache.close();
         }
     }
+
+    /**
+     * @return the number of metrics requests in failover, see {@link FailoverCache#size()}
+     */
+    public int getFailoverCacheSize() {
+        return failoverCache.size();
+    }
+
+    /**
+     * @return the number of tag requests in failover, see {@link FailoverCache#tagRequestsSize()}
+     */
+    public int getFailoverTagRequestsSize() {
+        return failoverCache.tagRequestsSize();
+    }
+
+    public FailoverCache getFailoverCache() {
+        return failoverCache;
+    }
 }
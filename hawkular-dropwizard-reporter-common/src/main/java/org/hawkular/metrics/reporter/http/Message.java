@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.reporter.http;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A request to Hawkular, kept in the failover cache when it could not be sent.<br/>
+ * Content of kept messages can be compressed in direct memory, see {@link #compress()}
+ */
+class Message {
+    private final String verb;
+    private final URL url;
+    private final ByteBuffer content;
+    private final boolean ownContent;
+    private final Map<String, String> headers;
+    private final long timestamp;
+    private final int level;
+    // Length of the uncompressed content, or -1 when content is not compressed
+    private final int contentLength;
+
+    /**
+     * @param ownContent false when the content buffer belongs to the caller and may be reused after sending
+     */
+    Message(String verb, URL url, ByteBuffer content, boolean ownContent, Map<String, String> headers) {
+        this(verb, url, content, ownContent, headers, System.currentTimeMillis(), 0, -1);
+    }
+
+    private Message(String verb, URL url, ByteBuffer content, boolean ownContent, Map<String, String> headers,
+                    long timestamp, int level, int contentLength) {
+        this.verb = verb;
+        this.url = url;
+        this.content = content;
+        this.ownContent = ownContent;
+        this.headers = headers;
+        this.timestamp = timestamp;
+        this.level = level;
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Get a message that can be kept for later: content is copied only when it's owned by the caller
+     */
+    Message retain() {
+        if (ownContent) {
+            return this;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(content.remaining());
+        copy.put(content.duplicate());
+        copy.flip();
+        return new Message(verb, url, copy, true, headers, timestamp, level, contentLength);
+    }
+
+    /**
+     * Get a message that can be kept for later, with its content deflated into a direct buffer of the exact size
+     */
+    Message compress() {
+        if (contentLength >= 0) {
+            return this;
+        }
+        byte[] input = new byte[content.remaining()];
+        content.duplicate().get(input);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, input.length / 4));
+            byte[] chunk = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            ByteBuffer compressed = ByteBuffer.allocateDirect(out.size());
+            compressed.put(out.toByteArray());
+            compressed.flip();
+            return new Message(verb, url, compressed, true, headers, timestamp, level, input.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Get a message for the same request, with another content
+     */
+    Message withContent(ByteBuffer otherContent) {
+        return new Message(verb, url, otherContent, true, headers, timestamp, level, -1);
+    }
+
+    /**
+     * Get a message carrying the content of both this message and the newer one, rolled up to a coarser resolution
+     */
+    Message rollUp(Message newer, ByteBuffer rolledUpContent) {
+        return new Message(verb, url, rolledUpContent, true, headers, newer.timestamp,
+                Math.max(level, newer.level) + 1, -1);
+    }
+
+    String getVerb() {
+        return verb;
+    }
+
+    URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Get a read-only view of the content, positioned at its start. Compressed content is inflated on the heap
+     */
+    ByteBuffer getContent() {
+        if (contentLength < 0) {
+            return content.asReadOnlyBuffer();
+        }
+        byte[] input = new byte[content.remaining()];
+        content.duplicate().get(input);
+        byte[] output = new byte[contentLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            int length = 0;
+            while (length < contentLength && !inflater.finished()) {
+                int n = inflater.inflate(output, length, contentLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated failover content");
+                }
+                length += n;
+            }
+            return ByteBuffer.wrap(output, 0, length).asReadOnlyBuffer();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted failover content", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Number of bytes held by this message content, compressed or not
+     */
+    int getStoredSize() {
+        return content.remaining();
+    }
+
+    /**
+     * Headers of the client that created this message, as the failover cache might be shared by several clients
+     */
+    Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    Long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Number of times this message has been rolled up: each data point stands for up to 2^level original points
+     */
+    int getLevel() {
+        return level;
+    }
+}
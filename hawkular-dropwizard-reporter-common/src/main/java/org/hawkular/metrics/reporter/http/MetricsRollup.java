@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.reporter.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+/**
+ * Rolls up two metrics messages of the failover cache into one, at a coarser resolution: data points of each series
+ * are merged by pairs of consecutive points, keeping the last value for counters and the average for gauges.
+ */
+final class MetricsRollup {
+
+    private static final String METRICS_PATH = "/metrics/raw";
+
+    private MetricsRollup() {
+    }
+
+    /**
+     * Only metrics posted to the same URL with the same headers (hence, the same tenant) can be rolled up together
+     */
+    static boolean canRollUp(Message older, Message newer) {
+        return "POST".equals(older.getVerb())
+                && older.getUrl().getPath().endsWith(METRICS_PATH)
+                && older.getVerb().equals(newer.getVerb())
+                && older.getUrl().toExternalForm().equals(newer.getUrl().toExternalForm())
+                && older.getHeaders().equals(newer.getHeaders());
+    }
+
+    /**
+     * @return the rolled up message, or empty if any content cannot be read as Hawkular metrics
+     */
+    static Optional<Message> rollUp(Message older, Message newer) {
+        Map<String, TreeMap<Long, Long>> counters = new LinkedHashMap<>();
+        Map<String, TreeMap<Long, double[]>> gauges = new LinkedHashMap<>();
+        try {
+            read(older, counters, gauges);
+            read(newer, counters, gauges);
+        } catch (JsonException | ClassCastException | NullPointerException e) {
+            return Optional.empty();
+        }
+        Map<String, Map<Long, Long>> rolledUpCounters = new LinkedHashMap<>();
+        counters.forEach((id, points) -> rolledUpCounters.put(id, rollUpCounter(points)));
+        Map<String, Map<Long, Double>> rolledUpGauges = new LinkedHashMap<>();
+        gauges.forEach((id, points) -> rolledUpGauges.put(id, rollUpGauge(points)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        HawkularJson.writeBatch(out, rolledUpCounters, rolledUpGauges);
+        return Optional.of(older.rollUp(newer, ByteBuffer.wrap(out.toByteArray())));
+    }
+
+    private static void read(Message message,
+                             Map<String, TreeMap<Long, Long>> counters,
+                             Map<String, TreeMap<Long, double[]>> gauges) {
+        ByteBuffer content = message.getContent();
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        // Points of a message rolled up n times stand for 2^n original points, which weights gauge averages
+        double weight = 1L << Math.min(message.getLevel(), 62);
+        try (JsonReader reader = Json.createReader(
+                new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8))) {
+            JsonObject json = reader.readObject();
+            if (json.containsKey("counters")) {
+                forEachPoint(json.getJsonArray("counters"), (id, point) -> counters
+                        .computeIfAbsent(id, k -> new TreeMap<>())
+                        .put(point.getJsonNumber("timestamp").longValue(), point.getJsonNumber("value").longValue()));
+            }
+            if (json.containsKey("gauges")) {
+                forEachPoint(json.getJsonArray("gauges"), (id, point) -> gauges
+                        .computeIfAbsent(id, k -> new TreeMap<>())
+                        .put(point.getJsonNumber("timestamp").longValue(),
+                                new double[] {point.getJsonNumber("value").doubleValue(), weight}));
+            }
+        }
+    }
+
+    private static void forEachPoint(JsonArray metrics, PointConsumer consumer) {
+        for (JsonObject metric : metrics.getValuesAs(JsonObject.class)) {
+            String id = metric.getString("id");
+            for (JsonObject point : metric.getJsonArray("dataPoints").getValuesAs(JsonObject.class)) {
+                consumer.accept(id, point);
+            }
+        }
+    }
+
+    private static Map<Long, Long> rollUpCounter(TreeMap<Long, Long> points) {
+        Map<Long, Long> rolledUp = new TreeMap<>();
+        Iterator<Map.Entry<Long, Long>> it = points.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Long> first = it.next();
+            // Counters are cumulative: the last value of a pair holds all the information
+            Map.Entry<Long, Long> last = it.hasNext() ? it.next() : first;
+            rolledUp.put(last.getKey(), last.getValue());
+        }
+        return rolledUp;
+    }
+
+    private static Map<Long, Double> rollUpGauge(TreeMap<Long, double[]> points) {
+        Map<Long, Double> rolledUp = new TreeMap<>();
+        Iterator<Map.Entry<Long, double[]>> it = points.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, double[]> first = it.next();
+            if (!it.hasNext()) {
+                rolledUp.put(first.getKey(), first.getValue()[0]);
+                break;
+            }
+            Map.Entry<Long, double[]> last = it.next();
+            double[] a = first.getValue();
+            double[] b = last.getValue();
+            rolledUp.put(last.getKey(), (a[0] * a[1] + b[0] * b[1]) / (a[1] + b[1]));
+        }
+        return rolledUp;
+    }
+
+    @FunctionalInterface
+    private interface PointConsumer {
+        void accept(String id, JsonObject point);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.reporter.jfr;
+
+/**
+ * Java Flight Recorder events emitted by the reporter.<br>
+ * Event classes need the {@code jdk.jfr} API: they are compiled from {@code src/main/java11}, only when building on
+ * JDK 11+, and loaded reflectively. On older runtimes, or when built on JDK 8, events are not recorded and the start
+ * methods return null. Events can also be turned off with the {@code hawkular.reporter.jfr.disabled} system property.
+ */
+public final class FlightRecording {
+
+    private static final String RECORDER_CLASS = "org.hawkular.metrics.reporter.jfr.JfrRecorder";
+    private static final Recorder RECORDER = load();
+
+    private FlightRecording() {
+    }
+
+    public static boolean isAvailable() {
+        return RECORDER != null;
+    }
+
+    /**
+     * @return the started event, or null when it is not recorded
+     */
+    public static ReportCycle startReportCycle() {
+        return RECORDER == null ? null : RECORDER.startReportCycle();
+    }
+
+    /**
+     * @return the started event, or null when it is not recorded
+     */
+    public static HttpRequest startHttpRequest(String method, String path) {
+        return RECORDER == null ? null : RECORDER.startHttpRequest(method, path);
+    }
+
+    /**
+     * @param metric the tagged metric name, or null when all metrics are re-tagged on reload
+     * @return the started event, or null when it is not recorded
+     */
+    public static Tagging startTagging(String metric) {
+        return RECORDER == null ? null : RECORDER.startTagging(metric);
+    }
+
+    private static Recorder load() {
+        if (Boolean.getBoolean("hawkular.reporter.jfr.disabled")) {
+            return null;
+        }
+        try {
+            ClassLoader loader = FlightRecording.class.getClassLoader();
+            Class.forName("jdk.jfr.Event", false, loader);
+            return (Recorder) Class.forName(RECORDER_CLASS, true, loader).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    interface Recorder {
+        ReportCycle startReportCycle();
+
+        HttpRequest startHttpRequest(String method, String path);
+
+        Tagging startTagging(String metric);
+    }
+
+    /**
+     * A report cycle, broken into the failover, collect, serialize and send phases. Each phase call closes the time
+     * elapsed since the previous one.
+     */
+    public interface ReportCycle {
+        void failoverDone();
+
+        void collectDone(int series);
+
+        void serialized(long bytes);
+
+        void sent();
+
+        void finish();
+    }
+
+    /**
+     * A request sent to Hawkular
+     */
+    public interface HttpRequest {
+        void setBytes(long bytes);
+
+        /**
+         * @param status the HTTP status, or -1 if no response was received
+         */
+        void finish(int status);
+    }
+
+    /**
+     * Tagging of a new metric, or re-tagging of all metrics on reload
+     */
+    public interface Tagging {
+        /**
+         * @param series number of series with tags
+         * @param sent   number of tag requests sent, series with unchanged tags being skipped
+         */
+        void finish(int series, int sent);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.reporter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a request sent to Hawkular
+ */
+@Name("org.hawkular.metrics.reporter.HttpRequest")
+@Label("Hawkular HTTP Request")
+@Category({"Hawkular", "Reporter"})
+@Description("Request sent by the reporter to the Hawkular server")
+@StackTrace(false)
+class HttpRequestEvent extends Event implements FlightRecording.HttpRequest {
+
+    @Label("Method")
+    String method;
+
+    @Label("Path Class")
+    @Description("Kind of resource: metrics, tags or other")
+    String pathClass;
+
+    @Label("Status")
+    @Description("HTTP status, or -1 if no response was received")
+    int status;
+
+    @Label("Request Size")
+    @DataAmount
+    long bytes;
+
+    void start(String method, String path) {
+        this.method = method;
+        this.pathClass = path.endsWith("/tags") ? "tags" : path.endsWith("/metrics/raw") ? "metrics" : "other";
+        this.status = -1;
+        begin();
+    }
+
+    @Override
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public void finish(int status) {
+        this.status = status;
+        commit();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.reporter.jfr;
+
+/**
+ * Creates JFR events. Loaded reflectively by {@link FlightRecording}, only when the {@code jdk.jfr} API is present
+ */
+class JfrRecorder implements FlightRecording.Recorder {
+
+    @Override
+    public FlightRecording.ReportCycle startReportCycle() {
+        ReportCycleEvent event = new ReportCycleEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.start();
+        return event;
+    }
+
+    @Override
+    public FlightRecording.HttpRequest startHttpRequest(String method, String path) {
+        HttpRequestEvent event = new HttpRequestEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.start(method, path);
+        return event;
+    }
+
+    @Override
+    public FlightRecording.Tagging startTagging(String metric) {
+        TaggingEvent event = new TaggingEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.start(metric);
+        return event;
+    }
+}
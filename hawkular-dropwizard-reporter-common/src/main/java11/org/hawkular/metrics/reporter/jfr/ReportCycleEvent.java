@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.reporter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for a report cycle, with the time spent in each of its phases. When cycles are batched, serialization
+ * happens on flush and is accounted in the send phase.
+ */
+@Name("org.hawkular.metrics.reporter.ReportCycle")
+@Label("Hawkular Report Cycle")
+@Category({"Hawkular", "Reporter"})
+@Description("Collection and sending of metrics to Hawkular")
+@StackTrace(false)
+class ReportCycleEvent extends Event implements FlightRecording.ReportCycle {
+
+    @Label("Series")
+    @Description("Number of data points collected")
+    int series;
+
+    @Label("Payload Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Failover")
+    @Timespan
+    long failover;
+
+    @Label("Collect")
+    @Timespan
+    long collect;
+
+    @Label("Serialize")
+    @Timespan
+    long serialize;
+
+    @Label("Send")
+    @Timespan
+    long send;
+
+    private transient long mark;
+
+    void start() {
+        begin();
+        mark = System.nanoTime();
+    }
+
+    @Override
+    public void failoverDone() {
+        failover += lap();
+    }
+
+    @Override
+    public void collectDone(int series) {
+        this.series += series;
+        collect += lap();
+    }
+
+    @Override
+    public void serialized(long bytes) {
+        this.bytes += bytes;
+        serialize += lap();
+    }
+
+    @Override
+    public void sent() {
+        send += lap();
+    }
+
+    @Override
+    public void finish() {
+        commit();
+    }
+
+    /**
+     * @return nanoseconds elapsed since the start of the cycle or the previous lap
+     */
+    private long lap() {
+        long now = System.nanoTime();
+        long elapsed = now - mark;
+        mark = now;
+        return elapsed;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.reporter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for the tagging of a new metric, or for re-tagging all metrics on rules reload
+ */
+@Name("org.hawkular.metrics.reporter.Tagging")
+@Label("Hawkular Tagging")
+@Category({"Hawkular", "Reporter"})
+@Description("Tags resolved and sent to Hawkular for a batch of series")
+@StackTrace(false)
+class TaggingEvent extends Event implements FlightRecording.Tagging {
+
+    @Label("Metric")
+    @Description("Metric name, not set on reload")
+    String metric;
+
+    @Label("Reload")
+    boolean reload;
+
+    @Label("Series")
+    @Description("Number of series with tags")
+    int series;
+
+    @Label("Sent")
+    @Description("Number of tag requests sent, series with unchanged tags are skipped")
+    int sent;
+
+    void start(String metric) {
+        this.metric = metric;
+        this.reload = metric == null;
+        begin();
+    }
+
+    @Override
+    public void finish(int series, int sent) {
+        this.series = series;
+        this.sent = sent;
+        commit();
+    }
+}
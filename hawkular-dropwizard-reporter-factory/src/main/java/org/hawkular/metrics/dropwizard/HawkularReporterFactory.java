@@ -46,7 +46,33 @@ public class HawkularReporterFactory extends BaseReporterFactory implements Hawk
     private Boolean tagComposition;
     private Long failoverCacheDuration;
     private Integer failoverCacheMaxSize;
+    private Long failoverCacheMaxBytes;
+    private Boolean failoverDownsampling;
+    private Integer connectTimeout;
+    private Integer readTimeout;
+    private Integer circuitBreakerFailures;
+    private Long circuitBreakerOpenDuration;
+    private Long backoffInitialDelay;
+    private Long backoffMaxDelay;
     private Map<String, Collection<String>> metricComposition;
+    private Map<String, String> tenantRoutes;
+    private Map<String, Collection<Long>> bucketsComposition;
+    private Collection<String> sampledGauges;
+    private Long gaugeSamplingPeriod;
+    private Integer batchCycles;
+    private Long batchMaxBytes;
+    private Boolean sharedRuntime;
+    private Integer sharedRuntimeThreads;
+    private Boolean virtualThreads;
+    private Integer sendQueueCapacity;
+    private SendQueueOverflowPolicy sendQueueOverflowPolicy;
+    private Integer tagCacheSize;
+    private String reportPhaseKey;
+    private Long collectionBudget;
+    private Map<String, MetricPriority> metricPriorities;
+    private Boolean reportJitter;
+    private Integer maxSeries;
+    private Map<String, Integer> seriesLimits;
 
     public HawkularReporterFactory() {
     }
@@ -181,6 +207,94 @@ public class HawkularReporterFactory extends BaseReporterFactory implements Hawk
         this.failoverCacheMaxSize = failoverCacheMaxSize;
     }
 
+    @Override
+    @JsonProperty
+    public Long getFailoverCacheMaxBytes() {
+        return failoverCacheMaxBytes;
+    }
+
+    @JsonProperty
+    public void setFailoverCacheMaxBytes(Long failoverCacheMaxBytes) {
+        this.failoverCacheMaxBytes = failoverCacheMaxBytes;
+    }
+
+    @Override
+    @JsonProperty
+    public Boolean getFailoverDownsampling() {
+        return failoverDownsampling;
+    }
+
+    @JsonProperty
+    public void setFailoverDownsampling(Boolean failoverDownsampling) {
+        this.failoverDownsampling = failoverDownsampling;
+    }
+
+    @Override
+    @JsonProperty
+    public Integer getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    @JsonProperty
+    public void setConnectTimeout(Integer connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    @Override
+    @JsonProperty
+    public Integer getReadTimeout() {
+        return readTimeout;
+    }
+
+    @JsonProperty
+    public void setReadTimeout(Integer readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    @JsonProperty
+    public Integer getCircuitBreakerFailures() {
+        return circuitBreakerFailures;
+    }
+
+    @JsonProperty
+    public void setCircuitBreakerFailures(Integer circuitBreakerFailures) {
+        this.circuitBreakerFailures = circuitBreakerFailures;
+    }
+
+    @Override
+    @JsonProperty
+    public Long getCircuitBreakerOpenDuration() {
+        return circuitBreakerOpenDuration;
+    }
+
+    @JsonProperty
+    public void setCircuitBreakerOpenDuration(Long circuitBreakerOpenDuration) {
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+    }
+
+    @Override
+    @JsonProperty
+    public Long getBackoffInitialDelay() {
+        return backoffInitialDelay;
+    }
+
+    @JsonProperty
+    public void setBackoffInitialDelay(Long backoffInitialDelay) {
+        this.backoffInitialDelay = backoffInitialDelay;
+    }
+
+    @Override
+    @JsonProperty
+    public Long getBackoffMaxDelay() {
+        return backoffMaxDelay;
+    }
+
+    @JsonProperty
+    public void setBackoffMaxDelay(Long backoffMaxDelay) {
+        this.backoffMaxDelay = backoffMaxDelay;
+    }
+
     @Override
     @JsonProperty
     public Map<String, Collection<String>> getMetricComposition() {
@@ -192,6 +306,204 @@ public class HawkularReporterFactory extends BaseReporterFactory implements Hawk
         this.metricComposition = metricComposition;
     }
 
+    @Override
+    @JsonProperty
+    public Map<String, String> getTenantRoutes() {
+        return tenantRoutes;
+    }
+
+    @JsonProperty
+    public void setTenantRoutes(Map<String, String> tenantRoutes) {
+        this.tenantRoutes = tenantRoutes;
+    }
+
+    @Override
+    @JsonProperty
+    public Map<String, Collection<Long>> getBucketsComposition() {
+        return bucketsComposition;
+    }
+
+    @JsonProperty
+    public void setBucketsComposition(Map<String, Collection<Long>> bucketsComposition) {
+        this.bucketsComposition = bucketsComposition;
+    }
+
+    @Override
+    @JsonProperty
+    public Collection<String> getSampledGauges() {
+        return sampledGauges;
+    }
+
+    @JsonProperty
+    public void setSampledGauges(Collection<String> sampledGauges) {
+        this.sampledGauges = sampledGauges;
+    }
+
+    @Override
+    @JsonProperty
+    public Long getGaugeSamplingPeriod() {
+        return gaugeSamplingPeriod;
+    }
+
+    @JsonProperty
+    public void setGaugeSamplingPeriod(Long gaugeSamplingPeriod) {
+        this.gaugeSamplingPeriod = gaugeSamplingPeriod;
+    }
+
+    @Override
+    @JsonProperty
+    public Integer getBatchCycles() {
+        return batchCycles;
+    }
+
+    @JsonProperty
+    public void setBatchCycles(Integer batchCycles) {
+        this.batchCycles = batchCycles;
+    }
+
+    @Override
+    @JsonProperty
+    public Long getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    @JsonProperty
+    public void setBatchMaxBytes(Long batchMaxBytes) {
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+    @Override
+    @JsonProperty
+    public Boolean getSharedRuntime() {
+        return sharedRuntime;
+    }
+
+    @JsonProperty
+    public void setSharedRuntime(Boolean sharedRuntime) {
+        this.sharedRuntime = sharedRuntime;
+    }
+
+    @Override
+    @JsonProperty
+    public Integer getSharedRuntimeThreads() {
+        return sharedRuntimeThreads;
+    }
+
+    @JsonProperty
+    public void setSharedRuntimeThreads(Integer sharedRuntimeThreads) {
+        this.sharedRuntimeThreads = sharedRuntimeThreads;
+    }
+
+    @Override
+    @JsonProperty
+    public Boolean getVirtualThreads() {
+        return virtualThreads;
+    }
+
+    @JsonProperty
+    public void setVirtualThreads(Boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    @Override
+    @JsonProperty
+    public Integer getSendQueueCapacity() {
+        return sendQueueCapacity;
+    }
+
+    @JsonProperty
+    public void setSendQueueCapacity(Integer sendQueueCapacity) {
+        this.sendQueueCapacity = sendQueueCapacity;
+    }
+
+    @Override
+    @JsonProperty
+    public SendQueueOverflowPolicy getSendQueueOverflowPolicy() {
+        return sendQueueOverflowPolicy;
+    }
+
+    @JsonProperty
+    public void setSendQueueOverflowPolicy(SendQueueOverflowPolicy sendQueueOverflowPolicy) {
+        this.sendQueueOverflowPolicy = sendQueueOverflowPolicy;
+    }
+
+    @Override
+    @JsonProperty
+    public Integer getTagCacheSize() {
+        return tagCacheSize;
+    }
+
+    @JsonProperty
+    public void setTagCacheSize(Integer tagCacheSize) {
+        this.tagCacheSize = tagCacheSize;
+    }
+
+    @Override
+    @JsonProperty
+    public Long getCollectionBudget() {
+        return collectionBudget;
+    }
+
+    @JsonProperty
+    public void setCollectionBudget(Long collectionBudget) {
+        this.collectionBudget = collectionBudget;
+    }
+
+    @Override
+    @JsonProperty
+    public Map<String, MetricPriority> getMetricPriorities() {
+        return metricPriorities;
+    }
+
+    @JsonProperty
+    public void setMetricPriorities(Map<String, MetricPriority> metricPriorities) {
+        this.metricPriorities = metricPriorities;
+    }
+
+    @Override
+    @JsonProperty
+    public String getReportPhaseKey() {
+        return reportPhaseKey;
+    }
+
+    @JsonProperty
+    public void setReportPhaseKey(String reportPhaseKey) {
+        this.reportPhaseKey = reportPhaseKey;
+    }
+
+    @Override
+    @JsonProperty
+    public Boolean getReportJitter() {
+        return reportJitter;
+    }
+
+    @JsonProperty
+    public void setReportJitter(Boolean reportJitter) {
+        this.reportJitter = reportJitter;
+    }
+
+    @Override
+    @JsonProperty
+    public Integer getMaxSeries() {
+        return maxSeries;
+    }
+
+    @JsonProperty
+    public void setMaxSeries(Integer maxSeries) {
+        this.maxSeries = maxSeries;
+    }
+
+    @Override
+    @JsonProperty
+    public Map<String, Integer> getSeriesLimits() {
+        return seriesLimits;
+    }
+
+    @JsonProperty
+    public void setSeriesLimits(Map<String, Integer> seriesLimits) {
+        this.seriesLimits = seriesLimits;
+    }
+
     @Override
     public ScheduledReporter build(MetricRegistry registry) {
         return HawkularReporter.builder(registry, tenant)
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * Maintains cumulative bucket counts per metric.<br/>
+ * Dropwizard histograms don't record every value, so at each report the count increase since the previous report is
+ * distributed over the buckets following the distribution of the current snapshot. Counts are thus approximated
+ * by sampling, but they never decrease, which keeps them usable as Hawkular counters.
+ */
+class BucketCounters extends MetricRegistryListener.Base {
+
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+
+    long[] update(String metricName, long count, Snapshot snapshot, Buckets buckets) {
+        long[] boundaries = buckets.boundaries();
+        State state = states.get(metricName);
+        if (state == null || state.cumulative.length != boundaries.length) {
+            state = new State(boundaries.length);
+            states.put(metricName, state);
+        }
+        // Count may go backward if the metric was re-created: in that case start again from its current count
+        long delta = count >= state.lastCount ? count - state.lastCount : count;
+        state.lastCount = count;
+        long[] values = snapshot.getValues();
+        if (delta > 0 && values.length > 0) {
+            if (!isSorted(values)) {
+                values = Arrays.copyOf(values, values.length);
+                Arrays.sort(values);
+            }
+            for (int i = 0; i < boundaries.length; i++) {
+                state.cumulative[i] += delta * ((double) countLowerOrEqual(values, boundaries[i]) / values.length);
+            }
+        }
+        long[] result = new long[boundaries.length];
+        for (int i = 0; i < boundaries.length; i++) {
+            result[i] = Math.round(state.cumulative[i]);
+        }
+        return result;
+    }
+
+    @Override public void onHistogramRemoved(String name) {
+        states.remove(name);
+    }
+
+    @Override public void onTimerRemoved(String name) {
+        states.remove(name);
+    }
+
+    private static boolean isSorted(long[] values) {
+        for (int i = 1; i < values.length; i++) {
+            if (values[i - 1] > values[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int countLowerOrEqual(long[] sortedValues, long boundary) {
+        int low = 0;
+        int high = sortedValues.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedValues[mid] <= boundary) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static class State {
+        private long lastCount;
+        private final double[] cumulative;
+
+        private State(int size) {
+            this.cumulative = new double[size];
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import static org.hawkular.metrics.dropwizard.MetricsTagger.METRIC_TYPE_COUNTER;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Upper boundaries of the buckets used to export histograms and timers distributions as counters.<br/>
+ * Each bucket generates a counter suffixed with "le.&lt;boundary&gt;", holding the cumulative number of values lower
+ * than or equal to the boundary. Unlike percentiles, these counters can be summed across instances.<br/>
+ * Boundaries are expressed in the unit of the recorded values, i.e. nanoseconds for timers.
+ */
+public final class Buckets {
+
+    private final long[] boundaries;
+    private final List<MetricPart<long[], Long>> parts;
+
+    private Buckets(Collection<Long> boundaries) {
+        this.boundaries = new TreeSet<>(boundaries).stream().mapToLong(Long::longValue).toArray();
+        List<MetricPart<long[], Long>> parts = new ArrayList<>(this.boundaries.length);
+        for (int i = 0; i < this.boundaries.length; i++) {
+            parts.add(new BucketPart(i, "le." + this.boundaries[i]));
+        }
+        this.parts = Collections.unmodifiableList(parts);
+    }
+
+    /**
+     * Create buckets from user-specified boundaries
+     * @param boundaries upper boundaries (inclusive) of the buckets
+     */
+    public static Buckets of(long... boundaries) {
+        List<Long> list = new ArrayList<>(boundaries.length);
+        for (long b : boundaries) {
+            list.add(b);
+        }
+        return of(list);
+    }
+
+    /**
+     * Create buckets from user-specified boundaries
+     * @param boundaries upper boundaries (inclusive) of the buckets
+     */
+    public static Buckets of(Collection<Long> boundaries) {
+        if (boundaries.isEmpty()) {
+            throw new IllegalArgumentException("At least one bucket boundary must be provided");
+        }
+        return new Buckets(boundaries);
+    }
+
+    /**
+     * Create log-linear buckets: every power of ten between min and max is divided in linearly spaced boundaries.
+     * For instance, logLinear(1, 1000, 3) produces 1, 4, 7, 10, 40, 70, 100, 400, 700, 1000
+     * @param min lowest boundary, must be strictly positive
+     * @param max highest boundary
+     * @param stepsPerDecade number of linear steps in each power of ten
+     */
+    public static Buckets logLinear(long min, long max, int stepsPerDecade) {
+        if (min <= 0 || max < min || stepsPerDecade <= 0) {
+            throw new IllegalArgumentException("Invalid log-linear buckets: min=" + min + ", max=" + max
+                    + ", steps=" + stepsPerDecade);
+        }
+        List<Long> list = new ArrayList<>();
+        for (long decade = 1; decade <= max; decade *= 10) {
+            for (int i = 0; i < stepsPerDecade; i++) {
+                long boundary = decade + Math.round(i * 9d * decade / stepsPerDecade);
+                if (boundary >= min && boundary <= max) {
+                    list.add(boundary);
+                }
+            }
+            if (decade > Long.MAX_VALUE / 10) {
+                break;
+            }
+        }
+        list.add(max);
+        return new Buckets(list);
+    }
+
+    public long[] getBoundaries() {
+        return Arrays.copyOf(boundaries, boundaries.length);
+    }
+
+    long[] boundaries() {
+        return boundaries;
+    }
+
+    List<MetricPart<long[], Long>> parts() {
+        return parts;
+    }
+
+    private static class BucketPart implements MetricPart<long[], Long> {
+        private final int index;
+        private final String suffix;
+
+        private BucketPart(int index, String suffix) {
+            this.index = index;
+            this.suffix = suffix;
+        }
+
+        @Override public Long getData(long[] cumulativeCounts) {
+            return cumulativeCounts[index];
+        }
+
+        @Override public String getSuffix() {
+            return suffix;
+        }
+
+        @Override public String getMetricType() {
+            return METRIC_TYPE_COUNTER;
+        }
+    }
+}
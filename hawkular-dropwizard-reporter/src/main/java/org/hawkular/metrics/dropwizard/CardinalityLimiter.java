@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caps the number of reported series, in total and per name pattern, to contain cardinality explosions such as
+ * identifiers leaking into metric names.<br/>
+ * Metrics are admitted on registration, on a first come first served basis. A metric is admitted with all its series
+ * (e.g. all parts of a timer) or not at all. Rejected metrics are neither tagged nor reported; their series are
+ * counted in an overflow gauge. Series are released when metrics are removed from the registry, making room for
+ * metrics registered afterwards.
+ */
+class CardinalityLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CardinalityLimiter.class);
+    private static final long WARNING_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Optional<Integer> maxSeries;
+    private final List<RegexContainer<Integer>> patternLimits;
+    private final int[] seriesPerPattern;
+    private final Set<String> admitted = ConcurrentHashMap.newKeySet();
+    private final Map<String, Admission> admissions = new HashMap<>();
+    private final Map<String, Integer> rejected = new HashMap<>();
+    private int totalSeries = 0;
+    private long rejectedSeries = 0;
+    private long lastWarning = 0;
+    private int suppressedWarnings = 0;
+
+    CardinalityLimiter(Optional<Integer> maxSeries, List<RegexContainer<Integer>> patternLimits) {
+        this.maxSeries = maxSeries;
+        this.patternLimits = new ArrayList<>(patternLimits);
+        this.seriesPerPattern = new int[patternLimits.size()];
+    }
+
+    boolean isEnabled() {
+        return maxSeries.isPresent() || !patternLimits.isEmpty();
+    }
+
+    /**
+     * Try to admit a metric
+     * @param name metric name
+     * @param series number of series this metric is reported as
+     * @return true if the metric can be tagged and reported
+     */
+    synchronized boolean admit(String name, long series) {
+        if (!isEnabled() || admitted.contains(name)) {
+            return true;
+        }
+        int count = (int) series;
+        int patternIndex = -1;
+        for (int i = 0; i < patternLimits.size(); i++) {
+            if (patternLimits.get(i).match(name).isPresent()) {
+                patternIndex = i;
+                break;
+            }
+        }
+        boolean overTotal = maxSeries.isPresent() && totalSeries + count > maxSeries.get();
+        boolean overPattern = patternIndex >= 0
+                && seriesPerPattern[patternIndex] + count > patternLimits.get(patternIndex).getContent();
+        if (overTotal || overPattern) {
+            if (!rejected.containsKey(name)) {
+                rejected.put(name, count);
+                rejectedSeries += count;
+                warn(name, overTotal);
+            }
+            return false;
+        }
+        totalSeries += count;
+        if (patternIndex >= 0) {
+            seriesPerPattern[patternIndex] += count;
+        }
+        admissions.put(name, new Admission(count, patternIndex));
+        admitted.add(name);
+        return true;
+    }
+
+    private void warn(String name, boolean overTotal) {
+        long now = System.currentTimeMillis();
+        if (now - lastWarning >= WARNING_INTERVAL_MS) {
+            LOG.warn("Series limit reached ({}), metric {} is not reported. {} other metrics were rejected since "
+                    + "last warning", overTotal ? "total" : "per pattern", name, suppressedWarnings);
+            lastWarning = now;
+            suppressedWarnings = 0;
+        } else {
+            suppressedWarnings++;
+        }
+    }
+
+    /**
+     * Check whether a metric was admitted. This is called for every metric at each report, so it doesn't lock
+     */
+    boolean isAdmitted(String name) {
+        return !isEnabled() || admitted.contains(name);
+    }
+
+    synchronized void release(String name) {
+        Integer rejectedCount = rejected.remove(name);
+        if (rejectedCount != null) {
+            rejectedSeries -= rejectedCount;
+        }
+        Admission admission = admissions.remove(name);
+        if (admission != null) {
+            admitted.remove(name);
+            totalSeries -= admission.series;
+            if (admission.patternIndex >= 0) {
+                seriesPerPattern[admission.patternIndex] -= admission.series;
+            }
+        }
+    }
+
+    synchronized long getRejectedSeries() {
+        return rejectedSeries;
+    }
+
+    synchronized int getAdmittedSeries() {
+        return totalSeries;
+    }
+
+    private static class Admission {
+        private final int series;
+        private final int patternIndex;
+
+        private Admission(int series, int patternIndex) {
+            this.series = series;
+            this.patternIndex = patternIndex;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the time spent collecting metrics in a report cycle. Metrics are collected by priority; once the budget is
+ * spent, metrics that are not of high priority are deferred. Deferred metrics are collected first among their
+ * priority class at the next cycle, so that they are not starved.
+ */
+class CollectionBudget {
+
+    private final long budgetNanos;
+    private final Map<String, MetricPriority> namedPriorities;
+    private final Collection<RegexContainer<MetricPriority>> regexPriorities;
+    private volatile int deferredMetrics = 0;
+    private volatile int deferredSeries = 0;
+
+    CollectionBudget(long budgetMs,
+                     Map<String, MetricPriority> namedPriorities,
+                     Collection<RegexContainer<MetricPriority>> regexPriorities) {
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMs);
+        this.namedPriorities = namedPriorities;
+        this.regexPriorities = regexPriorities;
+    }
+
+    MetricPriority getPriority(String metricName) {
+        MetricPriority priority = namedPriorities.get(metricName);
+        if (priority != null) {
+            return priority;
+        }
+        for (RegexContainer<MetricPriority> reg : regexPriorities) {
+            Optional<MetricPriority> match = reg.match(metricName);
+            if (match.isPresent()) {
+                return match.get();
+            }
+        }
+        return MetricPriority.NORMAL;
+    }
+
+    /**
+     * Collection rank: by priority, then metrics deferred at previous cycle first
+     */
+    static int rank(MetricPriority priority, boolean deferred) {
+        return priority.ordinal() * 2 + (deferred ? 0 : 1);
+    }
+
+    Cycle startCycle() {
+        return new Cycle(System.nanoTime() + budgetNanos);
+    }
+
+    /**
+     * Number of metrics that were deferred at last cycle
+     */
+    int getDeferredMetrics() {
+        return deferredMetrics;
+    }
+
+    /**
+     * Number of series of the metrics that were deferred at last cycle
+     */
+    int getDeferredSeries() {
+        return deferredSeries;
+    }
+
+    class Cycle {
+        private final long deadline;
+        private int metrics = 0;
+        private int series = 0;
+
+        private Cycle(long deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * @param series number of series of the metric, counted as deferred if it is not collected
+         */
+        boolean tryCollect(MetricPriority priority, int series) {
+            if (priority == MetricPriority.HIGH || System.nanoTime() - deadline <= 0) {
+                return true;
+            }
+            metrics++;
+            this.series += series;
+            return false;
+        }
+
+        void end() {
+            deferredMetrics = metrics;
+            deferredSeries = series;
+        }
+    }
+}
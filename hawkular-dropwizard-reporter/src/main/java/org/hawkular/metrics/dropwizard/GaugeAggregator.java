@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free min / max / average aggregation of gauge samples, reset at each report
+ */
+class GaugeAggregator {
+
+    private static final long EMPTY_MIN = Double.doubleToLongBits(Double.POSITIVE_INFINITY);
+    private static final long EMPTY_MAX = Double.doubleToLongBits(Double.NEGATIVE_INFINITY);
+
+    private final AtomicLong minBits = new AtomicLong(EMPTY_MIN);
+    private final AtomicLong maxBits = new AtomicLong(EMPTY_MAX);
+    private final DoubleAdder sum = new DoubleAdder();
+    private final LongAdder count = new LongAdder();
+
+    void record(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        long current = minBits.get();
+        while (value < Double.longBitsToDouble(current)
+                && !minBits.compareAndSet(current, Double.doubleToLongBits(value))) {
+            current = minBits.get();
+        }
+        current = maxBits.get();
+        while (value > Double.longBitsToDouble(current)
+                && !maxBits.compareAndSet(current, Double.doubleToLongBits(value))) {
+            current = maxBits.get();
+        }
+        sum.add(value);
+        count.increment();
+    }
+
+    /**
+     * Get the aggregation of samples recorded since the previous call, or null if there was none
+     */
+    Aggregate getAndReset() {
+        long n = count.sumThenReset();
+        double total = sum.sumThenReset();
+        double min = Double.longBitsToDouble(minBits.getAndSet(EMPTY_MIN));
+        double max = Double.longBitsToDouble(maxBits.getAndSet(EMPTY_MAX));
+        if (n == 0) {
+            return null;
+        }
+        return new Aggregate(min, max, total / n);
+    }
+
+    static class Aggregate {
+        private final double min;
+        private final double max;
+        private final double avg;
+
+        private Aggregate(double min, double max, double avg) {
+            this.min = min;
+            this.max = max;
+            this.avg = avg;
+        }
+
+        double getMin() {
+            return min;
+        }
+
+        double getMax() {
+            return max;
+        }
+
+        double getAvg() {
+            return avg;
+        }
+    }
+}
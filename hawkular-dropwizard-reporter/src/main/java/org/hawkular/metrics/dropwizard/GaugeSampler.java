@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+
+/**
+ * Reads selected gauges at a higher rate than the report interval, aggregating values locally so that short spikes
+ * are not missed while only min / max / avg are sent at report time
+ */
+class GaugeSampler extends MetricRegistryListener.Base {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GaugeSampler.class);
+
+    private final MetricsDecomposer decomposer;
+    private final MetricFilter metricFilter;
+    private final long samplingPeriodMs;
+    private final MetricRegistry registry;
+    private final Map<String, SampledGauge> sampledGauges = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> scheduledSampling;
+
+    GaugeSampler(MetricsDecomposer decomposer,
+                 MetricFilter metricFilter,
+                 long samplingPeriodMs,
+                 MetricRegistry registry) {
+        this.decomposer = decomposer;
+        this.metricFilter = metricFilter;
+        this.samplingPeriodMs = samplingPeriodMs;
+        this.registry = registry;
+        registry.getGauges().forEach(this::onGaugeAdded);
+        registry.addListener(this);
+    }
+
+    /**
+     * @param sharedScheduler scheduler of the shared reporting runtime, if any. Otherwise, a dedicated thread is used
+     */
+    synchronized void start(Optional<ScheduledExecutorService> sharedScheduler) {
+        if (scheduledSampling == null && decomposer.hasSampledGauges()) {
+            ScheduledExecutorService scheduler = sharedScheduler.orElseGet(() -> {
+                executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "hawkular-gauge-sampler");
+                    t.setDaemon(true);
+                    return t;
+                });
+                return executor;
+            });
+            scheduledSampling = scheduler.scheduleAtFixedRate(this::sample, samplingPeriodMs, samplingPeriodMs,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void stop() {
+        if (scheduledSampling != null) {
+            scheduledSampling.cancel(false);
+            scheduledSampling = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    void close() {
+        registry.removeListener(this);
+    }
+
+    void sample() {
+        for (SampledGauge sampled : sampledGauges.values()) {
+            try {
+                sampled.sample();
+            } catch (RuntimeException e) {
+                LOG.debug("Failed to sample gauge", e);
+            }
+        }
+    }
+
+    boolean isSampled(String name) {
+        return sampledGauges.containsKey(name);
+    }
+
+    /**
+     * Take a last sample and get the aggregation since the previous report
+     */
+    GaugeAggregator.Aggregate collect(String name) {
+        SampledGauge sampled = sampledGauges.get(name);
+        if (sampled == null) {
+            return null;
+        }
+        sampled.sample();
+        return sampled.aggregator.getAndReset();
+    }
+
+    @Override public void onGaugeAdded(String name, Gauge<?> gauge) {
+        if (decomposer.isSampledGauge(name) && metricFilter.matches(name, gauge)) {
+            sampledGauges.put(name, new SampledGauge(gauge));
+        }
+    }
+
+    @Override public void onGaugeRemoved(String name) {
+        sampledGauges.remove(name);
+    }
+
+    private static class SampledGauge {
+        private final Gauge<?> gauge;
+        private final GaugeAggregator aggregator = new GaugeAggregator();
+
+        private SampledGauge(Gauge<?> gauge) {
+            this.gauge = gauge;
+        }
+
+        private void sample() {
+            if (gauge instanceof DoubleGauge) {
+                aggregator.record(((DoubleGauge) gauge).getDoubleValue());
+                return;
+            } else if (gauge instanceof LongGauge) {
+                aggregator.record(((LongGauge) gauge).getLongValue());
+                return;
+            }
+            Object value = gauge.getValue();
+            if (value instanceof Number) {
+                aggregator.record(((Number) value).doubleValue());
+            }
+        }
+    }
+}
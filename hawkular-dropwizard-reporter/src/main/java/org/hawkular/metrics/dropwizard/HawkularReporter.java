@@ -18,24 +18,44 @@ package org.hawkular.metrics.dropwizard;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.SortedMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.hawkular.metrics.reporter.http.ByteBufferOutputStream;
+import org.hawkular.metrics.reporter.http.ByteBufferPool;
+import org.hawkular.metrics.reporter.http.DataPoints;
 import org.hawkular.metrics.reporter.http.HawkularHttpClient;
 import org.hawkular.metrics.reporter.http.HawkularJson;
+import org.hawkular.metrics.reporter.jfr.FlightRecording;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.Clock;
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Counting;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
 
 /**
@@ -43,27 +63,192 @@ import com.codahale.metrics.Timer;
  */
 public class HawkularReporter extends ScheduledReporter {
 
+    private static final Logger LOG = LoggerFactory.getLogger(HawkularReporter.class);
+    private static final AtomicInteger FACTORY_ID = new AtomicInteger();
+    private static final int INITIAL_PAYLOAD_BYTES = 4096;
+    static final String OVERFLOW_METRIC = "hawkular.reporter.series.overflow";
+    static final String DEFERRED_METRIC = "hawkular.reporter.deferred";
+    private static final Comparator<MetricIndex.Entry<?>> BY_RANK = Comparator.comparingInt(MetricIndex.Entry::getRank);
+
     private final Optional<String> prefix;
     private final Clock clock;
-    private final HawkularHttpClient hawkularClient;
+    private final TenantRouter tenantRouter;
     private final MetricsDecomposer decomposer;
     private final MetricsTagger tagger;
+    private final CardinalityLimiter cardinalityLimiter;
+    private final BucketCounters bucketCounters;
+    private final GaugeSampler gaugeSampler;
+    private final int batchCycles;
+    private final Optional<Long> batchMaxBytes;
+    private final Map<String, MetricsBatch> batches = new HashMap<>();
+    // One accumulator per tenant, so that a single collection pass produces one payload per tenant
+    private final Map<String, DataAccumulator> accumulators = new HashMap<>();
+    // Metrics to collect within the collection budget, kept from one report to the next to reuse its capacity
+    private final List<MetricIndex.Entry<?>> pending = new ArrayList<>();
+    private int bufferedCycles = 0;
+    private final Optional<HawkularReportingRuntime> runtime;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+    private ScheduledFuture<?> scheduledReport;
+    private final Optional<ReportPhase> reportPhase;
+    private final Optional<CollectionBudget> collectionBudget;
+    private volatile long periodMs = 0;
+    private volatile long phaseOffsetMs = 0;
+    private final Optional<SendQueue> sendQueue;
+    private final ByteBufferPool bufferPool;
+    private final MetricIndex index;
+    // Prefixed ids of the reporter's own metrics
+    private final String overflowId;
+    private final String deferredId;
+    private final Optional<RegistryUnion> registryUnion;
+    // Reported registry, as the one of ScheduledReporter is not visible
+    private final MetricRegistry registry;
 
     HawkularReporter(MetricRegistry registry,
-                     HawkularHttpClient hawkularClient,
+                     TenantRouter tenantRouter,
                      Optional<String> prefix,
                      MetricsDecomposer decomposer,
                      MetricsTagger tagger,
+                     CardinalityLimiter cardinalityLimiter,
+                     BucketCounters bucketCounters,
+                     GaugeSampler gaugeSampler,
+                     Optional<RegistryUnion> registryUnion,
+                     int batchCycles,
+                     Optional<Long> batchMaxBytes,
+                     Optional<HawkularReportingRuntime> runtime,
+                     Optional<SendQueue> sendQueue,
+                     Optional<ReportPhase> reportPhase,
+                     Optional<CollectionBudget> collectionBudget,
+                     ByteBufferPool bufferPool,
                      TimeUnit rateUnit,
                      TimeUnit durationUnit,
                      MetricFilter filter) {
-        super(registry, "hawkular-reporter", filter, rateUnit, durationUnit);
+        this(registry, tenantRouter, prefix, decomposer, tagger, cardinalityLimiter, bucketCounters, gaugeSampler,
+                registryUnion, batchCycles, batchMaxBytes, runtime, runtime.map(HawkularReportingRuntime::getScheduler)
+                        .orElseGet(HawkularReporter::createExecutor), sendQueue, reportPhase, collectionBudget,
+                bufferPool, rateUnit, durationUnit, filter);
+    }
+
+    private HawkularReporter(MetricRegistry registry,
+                             TenantRouter tenantRouter,
+                             Optional<String> prefix,
+                             MetricsDecomposer decomposer,
+                             MetricsTagger tagger,
+                             CardinalityLimiter cardinalityLimiter,
+                             BucketCounters bucketCounters,
+                             GaugeSampler gaugeSampler,
+                             Optional<RegistryUnion> registryUnion,
+                             int batchCycles,
+                             Optional<Long> batchMaxBytes,
+                             Optional<HawkularReportingRuntime> runtime,
+                             ScheduledExecutorService executor,
+                             Optional<SendQueue> sendQueue,
+                             Optional<ReportPhase> reportPhase,
+                             Optional<CollectionBudget> collectionBudget,
+                             ByteBufferPool bufferPool,
+                             TimeUnit rateUnit,
+                             TimeUnit durationUnit,
+                             MetricFilter filter) {
+        super(registry, "hawkular-reporter", filter, rateUnit, durationUnit, executor);
 
         this.prefix = prefix;
         this.clock = Clock.defaultClock();
-        this.hawkularClient = hawkularClient;
+        this.tenantRouter = tenantRouter;
         this.decomposer = decomposer;
         this.tagger = tagger;
+        this.cardinalityLimiter = cardinalityLimiter;
+        this.bucketCounters = bucketCounters;
+        this.gaugeSampler = gaugeSampler;
+        this.registryUnion = registryUnion;
+        this.registry = registry;
+        this.batchCycles = batchCycles;
+        this.batchMaxBytes = batchMaxBytes;
+        this.runtime = runtime;
+        this.executor = executor;
+        this.sendQueue = sendQueue;
+        this.reportPhase = reportPhase;
+        this.collectionBudget = collectionBudget;
+        this.bufferPool = bufferPool;
+        this.overflowId = prefix.orElse("") + OVERFLOW_METRIC;
+        this.deferredId = prefix.orElse("") + DEFERRED_METRIC;
+        // Last: existing metrics are planned as soon as the index is created
+        this.index = new MetricIndex(registry, filter, this::plan);
+    }
+
+    private static ScheduledExecutorService createExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hawkular-reporter-" + FACTORY_ID.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduledReport != null) {
+            throw new IllegalStateException("Reporter already started");
+        }
+        Runnable task = () -> {
+            try {
+                report();
+            } catch (RuntimeException e) {
+                LOG.error("RuntimeException thrown from HawkularReporter#report. Exception was suppressed.", e);
+            }
+        };
+        long millis = unit.toMillis(period);
+        if (reportPhase.isPresent() && millis > 0) {
+            // Reports run at a fixed offset after interval boundaries, boundaries being multiples of the period
+            phaseOffsetMs = reportPhase.get().offset(millis);
+            periodMs = millis;
+            long now = clock.getTime();
+            long next = Math.floorDiv(now - phaseOffsetMs, millis) * millis + millis + phaseOffsetMs;
+            scheduledReport = executor.scheduleAtFixedRate(task, next - now, millis, TimeUnit.MILLISECONDS);
+        } else {
+            scheduledReport = executor.scheduleAtFixedRate(task, period, period, unit);
+        }
+        gaugeSampler.start(runtime.map(HawkularReportingRuntime::getScheduler));
+    }
+
+    @Override
+    public void stop() {
+        if (stopped.getAndSet(true)) {
+            return;
+        }
+        gaugeSampler.stop();
+        synchronized (this) {
+            if (scheduledReport != null) {
+                scheduledReport.cancel(false);
+            }
+        }
+        if (!runtime.isPresent()) {
+            // A shared scheduler must not be shut down here
+            super.stop();
+        }
+        flush();
+        sendQueue.ifPresent(SendQueue::close);
+        tenantRouter.getClients().forEach(HawkularHttpClient::close);
+        // Released last: the last release closes the shared failover cache, that the final flush may still fill
+        runtime.ifPresent(HawkularReportingRuntime::release);
+        // Registries may outlive the reporter: they must not keep notifying it
+        registryUnion.ifPresent(RegistryUnion::close);
+        index.close();
+        tagger.close();
+        gaugeSampler.close();
+        registry.removeListener(bucketCounters);
+    }
+
+    void sampleGauges() {
+        gaugeSampler.sample();
+    }
+
+    /**
+     * Report the current values of all metrics, iterated from an index maintained on registry changes rather than
+     * filtered and sorted at each report
+     */
+    @Override
+    public void report() {
+        collectAndSend(index.getGauges(), index.getCounters(), index.getHistograms(), index.getMeters(),
+                index.getTimers());
     }
 
     @Override
@@ -72,66 +257,413 @@ public class HawkularReporter extends ScheduledReporter {
                        SortedMap<String, Histogram> histograms,
                        SortedMap<String, Meter> meters,
                        SortedMap<String, Timer> timers) {
+        collectAndSend(entries(gauges, MetricIndex.Kind.GAUGE), entries(counters, MetricIndex.Kind.COUNTER),
+                entries(histograms, MetricIndex.Kind.HISTOGRAM), entries(meters, MetricIndex.Kind.METER),
+                entries(timers, MetricIndex.Kind.TIMER));
+    }
 
-        hawkularClient.manageFailover();
+    private <M extends Metric> Collection<MetricIndex.Entry<M>> entries(Map<String, M> metrics,
+                                                                        MetricIndex.Kind kind) {
+        List<MetricIndex.Entry<M>> entries = new ArrayList<>(metrics.size());
+        for (Map.Entry<String, M> e : metrics.entrySet()) {
+            entries.add(index.entry(e.getKey(), e.getValue(), kind));
+        }
+        return entries;
+    }
+
+    /**
+     * Resolve how a metric is reported, from the current routing, priority and composition rules
+     */
+    private ReportPlan plan(String name, MetricIndex.Kind kind) {
+        String p = prefix.orElse("");
+        MetricsDecomposer.PartsStreamer streamer = decomposer.streamParts(name);
+        boolean counting = kind == MetricIndex.Kind.METER || kind == MetricIndex.Kind.HISTOGRAM
+                || kind == MetricIndex.Kind.TIMER;
+        boolean metered = kind == MetricIndex.Kind.METER || kind == MetricIndex.Kind.TIMER;
+        boolean sampling = kind == MetricIndex.Kind.HISTOGRAM || kind == MetricIndex.Kind.TIMER;
+        boolean sampledGauge = kind == MetricIndex.Kind.GAUGE && decomposer.isSampledGauge(name);
+        Buckets buckets = sampling ? decomposer.getBuckets(name).orElse(null) : null;
+        List<ReportPlan.Part<Counting, Long>> countingParts =
+                counting ? ReportPlan.parts(streamer.countings(), p, name) : Collections.emptyList();
+        List<ReportPlan.Part<Metered, Object>> meteredParts =
+                metered ? ReportPlan.parts(streamer.metered(), p, name) : Collections.emptyList();
+        List<ReportPlan.Part<Snapshot, Object>> samplingParts =
+                sampling ? ReportPlan.parts(streamer.samplings(), p, name) : Collections.emptyList();
+        List<ReportPlan.Part<GaugeAggregator.Aggregate, Object>> gaugeSamplingParts =
+                sampledGauge ? ReportPlan.parts(streamer.gaugeSamplings(), p, name) : Collections.emptyList();
+        List<ReportPlan.Part<long[], Long>> bucketParts =
+                buckets != null ? ReportPlan.parts(streamer.buckets(), p, name) : Collections.emptyList();
+        int series;
+        if (kind == MetricIndex.Kind.COUNTER || (kind == MetricIndex.Kind.GAUGE && !sampledGauge)) {
+            series = 1;
+        } else {
+            series = countingParts.size() + meteredParts.size() + samplingParts.size() + gaugeSamplingParts.size()
+                    + bucketParts.size();
+        }
+        return new ReportPlan(tenantRouter.getTenant(name),
+                p + name,
+                collectionBudget.map(budget -> budget.getPriority(name)).orElse(MetricPriority.NORMAL),
+                series,
+                countingParts,
+                meteredParts,
+                samplingParts,
+                gaugeSamplingParts,
+                buckets,
+                bucketParts);
+    }
+
+    /**
+     * Synchronized, as accumulators are reused from one report to the next
+     */
+    private synchronized void collectAndSend(Collection<MetricIndex.Entry<Gauge>> gauges,
+                                Collection<MetricIndex.Entry<Counter>> counters,
+                                Collection<MetricIndex.Entry<Histogram>> histograms,
+                                Collection<MetricIndex.Entry<Meter>> meters,
+                                Collection<MetricIndex.Entry<Timer>> timers) {
+        FlightRecording.ReportCycle event = FlightRecording.startReportCycle();
+
+        if (!sendQueue.isPresent()) {
+            tenantRouter.getClients().forEach(HawkularHttpClient::manageFailover);
+        }
+        if (event != null) {
+            event.failoverDone();
+        }
 
         if (gauges.isEmpty() && counters.isEmpty() && histograms.isEmpty() && meters.isEmpty() &&
                 timers.isEmpty()) {
+            if (event != null) {
+                event.finish();
+            }
             return;
         }
 
-        final long timestamp = clock.getTime();
+        final long timestamp = logicalTime(clock.getTime());
+
+        for (DataAccumulator accumulator : accumulators.values()) {
+            accumulator.clear();
+        }
+        if (collectionBudget.isPresent()) {
+            collectWithinBudget(collectionBudget.get(), accumulators, gauges, counters, histograms, meters, timers);
+            accumulatorFor(accumulators, tenantRouter.getDefaultTenant())
+                    .addGauge(deferredId, (double) collectionBudget.get().getDeferredSeries());
+        } else {
+            processGauges(accumulators, gauges);
+            processCounters(accumulators, counters);
+            processMeters(accumulators, meters);
+            processHistograms(accumulators, histograms);
+            processTimers(accumulators, timers);
+        }
+        if (cardinalityLimiter.isEnabled()) {
+            accumulatorFor(accumulators, tenantRouter.getDefaultTenant())
+                    .addGauge(overflowId, (double) cardinalityLimiter.getRejectedSeries());
+        }
+
+        if (event != null) {
+            int series = 0;
+            for (DataAccumulator accu : accumulators.values()) {
+                series += accu.getPoints().getCounterCount() + accu.getPoints().getGaugeCount();
+            }
+            event.collectDone(series);
+        }
+
+        if (batchCycles <= 1) {
+            for (Map.Entry<String, DataAccumulator> e : accumulators.entrySet()) {
+                DataAccumulator accu = e.getValue();
+                if (!accu.getPoints().isEmpty()) {
+                    ByteBufferOutputStream out = new ByteBufferOutputStream(bufferPool, INITIAL_PAYLOAD_BYTES);
+                    HawkularJson.writeMetrics(out, timestamp, accu.getPoints());
+                    ByteBuffer json = out.toByteBuffer();
+                    if (event != null) {
+                        event.serialized(json.remaining());
+                    }
+                    post(tenantRouter.getClientForTenant(e.getKey()), json);
+                    if (event != null) {
+                        event.sent();
+                    }
+                }
+            }
+        } else {
+            batch(timestamp, accumulators);
+            if (event != null) {
+                event.sent();
+            }
+        }
+        if (event != null) {
+            event.finish();
+        }
+    }
 
-        DataAccumulator accu = new DataAccumulator();
-        processGauges(accu, gauges);
-        processCounters(accu, counters);
-        processMeters(accu, meters);
-        processHistograms(accu, histograms);
-        processTimers(accu, timers);
+    /**
+     * When reports are phased, data points are timestamped with the interval boundary rather than the actual report
+     * time, so that they are aligned across instances. Rounding absorbs small scheduling drifts
+     */
+    private long logicalTime(long now) {
+        long period = periodMs;
+        if (period <= 0) {
+            return now;
+        }
+        return Math.round((double) (now - phaseOffsetMs) / period) * period;
+    }
 
-        if (!accu.getCounters().isEmpty() || !accu.getGauges().isEmpty()) {
-            String json = HawkularJson.metricsToString(timestamp, accu.getCounters(), accu.getGauges());
-            hawkularClient.postMetrics(json);
+    private synchronized void batch(long timestamp, Map<String, DataAccumulator> accumulators) {
+        long estimatedBytes = 0;
+        for (Map.Entry<String, DataAccumulator> e : accumulators.entrySet()) {
+            MetricsBatch batch = batches.computeIfAbsent(e.getKey(), t -> new MetricsBatch());
+            batch.add(timestamp, e.getValue().getPoints());
+            estimatedBytes = Math.max(estimatedBytes, batch.getEstimatedBytes());
+        }
+        bufferedCycles++;
+        if (bufferedCycles >= batchCycles || (batchMaxBytes.isPresent() && estimatedBytes >= batchMaxBytes.get())) {
+            flush();
         }
     }
 
-    private static void processGauges(DataAccumulator builder, Map<String, Gauge> gauges) {
-        for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
-            builder.addGauge(e.getKey(), e.getValue().getValue());
+    /**
+     * Send data points that are buffered when several cycles are batched together. This is done automatically when
+     * the reporter is stopped.
+     */
+    public synchronized void flush() {
+        batches.forEach((tenant, batch) -> {
+            if (!batch.isEmpty()) {
+                ByteBufferOutputStream out = new ByteBufferOutputStream(bufferPool,
+                        (int) Math.min(Integer.MAX_VALUE, Math.max(INITIAL_PAYLOAD_BYTES, batch.getEstimatedBytes())));
+                batch.writeJson(out);
+                post(tenantRouter.getClientForTenant(tenant), out.toByteBuffer());
+            }
+        });
+        batches.clear();
+        bufferedCycles = 0;
+    }
+
+    /**
+     * Post a payload encoded in a pooled buffer, which is released once sent
+     */
+    private void post(HawkularHttpClient client, ByteBuffer json) {
+        if (sendQueue.isPresent()) {
+            sendQueue.get().submit(client, json);
+        } else {
+            try {
+                client.postMetrics(json);
+            } finally {
+                bufferPool.release(json);
+            }
         }
     }
 
-    private static void processCounters(DataAccumulator builder, Map<String, Counter> counters) {
-        for (Map.Entry<String, Counter> e : counters.entrySet()) {
-            builder.addCounter(e.getKey(), e.getValue().getCount());
+    /**
+     * Number of payloads dropped because the send queue was full
+     */
+    public long getDroppedPayloads() {
+        return sendQueue.map(SendQueue::getDropped).orElse(0L);
+    }
+
+    private DataAccumulator accumulatorFor(Map<String, DataAccumulator> accumulators, String tenant) {
+        DataAccumulator accumulator = accumulators.get(tenant);
+        if (accumulator == null) {
+            accumulator = new DataAccumulator();
+            accumulators.put(tenant, accumulator);
         }
+        return accumulator;
     }
 
-    private void processMeters(DataAccumulator builder, Map<String, Meter> meters) {
-        for (Map.Entry<String, Meter> e : meters.entrySet()) {
-            MetricsDecomposer.PartsStreamer streamer = decomposer.streamParts(e.getKey());
-            streamer.countings().forEach(metricPart -> builder.addSubCounter(metricPart, e));
-            streamer.metered().forEach(metricPart -> builder.addSubGauge(metricPart, e));
+    private void collectWithinBudget(CollectionBudget budget,
+                                     Map<String, DataAccumulator> accumulators,
+                                     Collection<MetricIndex.Entry<Gauge>> gauges,
+                                     Collection<MetricIndex.Entry<Counter>> counters,
+                                     Collection<MetricIndex.Entry<Histogram>> histograms,
+                                     Collection<MetricIndex.Entry<Meter>> meters,
+                                     Collection<MetricIndex.Entry<Timer>> timers) {
+        addPending(gauges);
+        addPending(counters);
+        addPending(meters);
+        addPending(histograms);
+        addPending(timers);
+        pending.sort(BY_RANK);
+        CollectionBudget.Cycle cycle = budget.startCycle();
+        for (int i = 0; i < pending.size(); i++) {
+            MetricIndex.Entry<?> e = pending.get(i);
+            ReportPlan plan = index.getPlan(e);
+            boolean collect = cycle.tryCollect(plan.getPriority(), plan.getSeries());
+            e.setDeferred(!collect);
+            if (collect) {
+                process(accumulators, e);
+            }
         }
+        cycle.end();
+        pending.clear();
     }
 
-    private void processHistograms(DataAccumulator builder, Map<String, Histogram> histograms) {
-        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
-            MetricsDecomposer.PartsStreamer streamer = decomposer.streamParts(e.getKey());
-            streamer.countings().forEach(metricPart -> builder.addSubCounter(metricPart, e));
-            streamer.samplings().forEach(metricPart -> builder.addSubGauge(metricPart, e));
+    private void addPending(Collection<? extends MetricIndex.Entry<?>> entries) {
+        for (MetricIndex.Entry<?> e : entries) {
+            e.setRank(CollectionBudget.rank(index.getPlan(e).getPriority(), e.isDeferred()));
+            pending.add(e);
         }
     }
 
-    private void processTimers(DataAccumulator builder, Map<String, Timer> timers) {
-        for (Map.Entry<String, Timer> e : timers.entrySet()) {
-            MetricsDecomposer.PartsStreamer streamer = decomposer.streamParts(e.getKey());
-            streamer.countings().forEach(metricPart -> builder.addSubCounter(metricPart, e));
-            streamer.metered().forEach(metricPart -> builder.addSubGauge(metricPart, e));
-            streamer.samplings().forEach(metricPart -> builder.addSubGauge(metricPart, e));
+    @SuppressWarnings("unchecked")
+    private void process(Map<String, DataAccumulator> accumulators, MetricIndex.Entry<?> e) {
+        switch (e.getKind()) {
+            case GAUGE:
+                processGauge(accumulators, (MetricIndex.Entry<Gauge>) e);
+                break;
+            case COUNTER:
+                processCounter(accumulators, (MetricIndex.Entry<Counter>) e);
+                break;
+            case METER:
+                processMeter(accumulators, (MetricIndex.Entry<Meter>) e);
+                break;
+            case HISTOGRAM:
+                processHistogram(accumulators, (MetricIndex.Entry<Histogram>) e);
+                break;
+            case TIMER:
+                processTimer(accumulators, (MetricIndex.Entry<Timer>) e);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown metric kind: " + e.getKind());
         }
     }
 
+    private void processGauges(Map<String, DataAccumulator> accumulators,
+                               Collection<MetricIndex.Entry<Gauge>> gauges) {
+        for (MetricIndex.Entry<Gauge> e : gauges) {
+            processGauge(accumulators, e);
+        }
+    }
+
+    private void processGauge(Map<String, DataAccumulator> accumulators, MetricIndex.Entry<Gauge> e) {
+        if (!cardinalityLimiter.isAdmitted(e.getName())) {
+            return;
+        }
+        ReportPlan plan = index.getPlan(e);
+        DataAccumulator builder = accumulatorFor(accumulators, plan.getTenant());
+        Gauge gauge = e.getMetric();
+        if (gaugeSampler.isSampled(e.getName())) {
+            GaugeAggregator.Aggregate aggregate = gaugeSampler.collect(e.getName());
+            if (aggregate != null) {
+                builder.addSubGauges(plan.getGaugeSamplings(), aggregate);
+            }
+        } else if (gauge instanceof DoubleGauge) {
+            builder.addGauge(plan.getId(), ((DoubleGauge) gauge).getDoubleValue());
+        } else if (gauge instanceof LongGauge) {
+            builder.addGauge(plan.getId(), (double) ((LongGauge) gauge).getLongValue());
+        } else {
+            builder.addGauge(plan.getId(), gauge.getValue());
+        }
+    }
+
+    private void processCounters(Map<String, DataAccumulator> accumulators,
+                                 Collection<MetricIndex.Entry<Counter>> counters) {
+        for (MetricIndex.Entry<Counter> e : counters) {
+            processCounter(accumulators, e);
+        }
+    }
+
+    private void processCounter(Map<String, DataAccumulator> accumulators, MetricIndex.Entry<Counter> e) {
+        if (!cardinalityLimiter.isAdmitted(e.getName())) {
+            return;
+        }
+        ReportPlan plan = index.getPlan(e);
+        accumulatorFor(accumulators, plan.getTenant()).addCounter(plan.getId(), e.getMetric().getCount());
+    }
+
+    private void processMeters(Map<String, DataAccumulator> accumulators,
+                               Collection<MetricIndex.Entry<Meter>> meters) {
+        for (MetricIndex.Entry<Meter> e : meters) {
+            processMeter(accumulators, e);
+        }
+    }
+
+    private void processMeter(Map<String, DataAccumulator> accumulators, MetricIndex.Entry<Meter> e) {
+        if (!cardinalityLimiter.isAdmitted(e.getName())) {
+            return;
+        }
+        ReportPlan plan = index.getPlan(e);
+        DataAccumulator builder = accumulatorFor(accumulators, plan.getTenant());
+        builder.addSubCounters(plan.getCountings(), e.getMetric());
+        builder.addSubGauges(plan.getMetered(), e.getMetric());
+    }
+
+    private void processHistograms(Map<String, DataAccumulator> accumulators,
+                                   Collection<MetricIndex.Entry<Histogram>> histograms) {
+        for (MetricIndex.Entry<Histogram> e : histograms) {
+            processHistogram(accumulators, e);
+        }
+    }
+
+    private void processHistogram(Map<String, DataAccumulator> accumulators, MetricIndex.Entry<Histogram> e) {
+        if (!cardinalityLimiter.isAdmitted(e.getName())) {
+            return;
+        }
+        ReportPlan plan = index.getPlan(e);
+        DataAccumulator builder = accumulatorFor(accumulators, plan.getTenant());
+        Histogram histogram = e.getMetric();
+        builder.addSubCounters(plan.getCountings(), histogram);
+        // A single snapshot per metric and report: it may be costly, and some reservoirs reset on snapshot
+        Snapshot snapshot = histogram.getSnapshot();
+        builder.addSubGauges(plan.getSamplings(), snapshot);
+        processBuckets(builder, e.getName(), plan, snapshot, histogram.getCount());
+    }
+
+    private void processBuckets(DataAccumulator builder, String name, ReportPlan plan, Snapshot snapshot,
+                                long count) {
+        if (plan.getBuckets() != null) {
+            long[] counts = bucketCounters.update(name, count, snapshot, plan.getBuckets());
+            builder.addSubCounters(plan.getBucketParts(), counts);
+        }
+    }
+
+    private void processTimers(Map<String, DataAccumulator> accumulators,
+                               Collection<MetricIndex.Entry<Timer>> timers) {
+        for (MetricIndex.Entry<Timer> e : timers) {
+            processTimer(accumulators, e);
+        }
+    }
+
+    private void processTimer(Map<String, DataAccumulator> accumulators, MetricIndex.Entry<Timer> e) {
+        if (!cardinalityLimiter.isAdmitted(e.getName())) {
+            return;
+        }
+        ReportPlan plan = index.getPlan(e);
+        DataAccumulator builder = accumulatorFor(accumulators, plan.getTenant());
+        Timer timer = e.getMetric();
+        builder.addSubCounters(plan.getCountings(), timer);
+        builder.addSubGauges(plan.getMetered(), timer);
+        // A single snapshot per metric and report: it may be costly, and some reservoirs reset on snapshot
+        Snapshot snapshot = timer.getSnapshot();
+        builder.addSubGauges(plan.getSamplings(), snapshot);
+        processBuckets(builder, e.getName(), plan, snapshot, timer.getCount());
+    }
+
+    /**
+     * Replace tag and metric composition rules without recreating the reporter. Only the tagging and composition
+     * settings of the given builder are used: global tags, per-metric tags, tag composition and metric composition.
+     * Settings that are not set on it are back to their defaults.<br/>
+     * Series are re-tagged only when their resolved tags changed. Collection and failover state are not affected.
+     * <pre>
+     * reporter.reloadRules(HawkularReporter.builder(registry, tenant).withNullableConfig(newConfig));
+     * </pre>
+     * @param rules builder holding the new rules; it is not built
+     */
+    public void reloadRules(HawkularReporterBuilder rules) {
+        tagger.reload(rules.buildTagRules(), rules.buildComposition());
+        index.invalidatePlans();
+    }
+
+    /**
+     * Number of metrics that were not collected at last report, because the collection time budget was spent
+     */
+    public int getDeferredMetrics() {
+        return collectionBudget.map(CollectionBudget::getDeferredMetrics).orElse(0);
+    }
+
+    /**
+     * Number of series that were not reported at last report, because the collection time budget was spent. It is
+     * also reported as the {@value #DEFERRED_METRIC} gauge
+     */
+    public int getDeferredSeries() {
+        return collectionBudget.map(CollectionBudget::getDeferredSeries).orElse(0);
+    }
+
     public Optional<String> getPrefix() {
         return prefix;
     }
@@ -141,7 +673,18 @@ public class HawkularReporter extends ScheduledReporter {
     }
 
     public HawkularHttpClient getHawkularClient() {
-        return hawkularClient;
+        return tenantRouter.getDefaultClient();
+    }
+
+    /**
+     * Get the Hawkular client used for a given tenant, or null if no metric is routed to that tenant
+     */
+    public HawkularHttpClient getHawkularClient(String tenant) {
+        return tenantRouter.getClientForTenant(tenant);
+    }
+
+    public String getTenant(String metricName) {
+        return tenantRouter.getTenant(metricName);
     }
 
     public Map<String, String> getTagsForMetrics(String m) {
@@ -152,6 +695,10 @@ public class HawkularReporter extends ScheduledReporter {
         return decomposer.getAllowedParts(metricName);
     }
 
+    public Optional<Buckets> getBuckets(String metricName) {
+        return decomposer.getBuckets(metricName);
+    }
+
     public boolean isEnableTagComposition() {
         return tagger.isEnableTagComposition();
     }
@@ -166,61 +713,67 @@ public class HawkularReporter extends ScheduledReporter {
         return new HawkularReporterBuilder(registry, tenant);
     }
 
-    private class DataAccumulator {
-        private Map<String, Double> gauges = new HashMap<>();
-        private Map<String, Long> counters = new HashMap<>();
+    /**
+     * Data points of a tenant, with their prefixed ids
+     */
+    private static class DataAccumulator {
+        private final DataPoints points = new DataPoints();
 
         private DataAccumulator() {
         }
 
-        private Map<String, Double> getGauges() {
-            return gauges;
+        private DataPoints getPoints() {
+            return points;
         }
 
-        private Map<String, Long> getCounters() {
-            return counters;
+        private void clear() {
+            points.clear();
         }
 
-        private DataAccumulator addCounter(String name, long l) {
-            String fullName = prefix.map(p -> p + name).orElse(name);
-            counters.put(fullName, l);
+        private DataAccumulator addCounter(String id, long l) {
+            points.addCounter(id, l);
             return this;
         }
 
-        private DataAccumulator addGauge(String name, Object value) {
-            String fullName = prefix.map(p -> p + name).orElse(name);
+        private DataAccumulator addGauge(String id, double value) {
+            if (Double.isFinite(value)) {
+                points.addGauge(id, value);
+            }
+            return this;
+        }
+
+        private DataAccumulator addGauge(String id, Object value) {
+            if (value instanceof Double) {
+                return addGauge(id, ((Double) value).doubleValue());
+            }
             if (value instanceof BigDecimal) {
-                gauges.put(fullName, ((BigDecimal) value).doubleValue());
+                points.addGauge(id, ((BigDecimal) value).doubleValue());
             } else if (value instanceof BigInteger) {
-                gauges.put(fullName, ((BigInteger) value).doubleValue());
-            } else if (value != null && value.getClass().isAssignableFrom(Double.class)) {
-                if (!Double.isNaN((Double) value) && Double.isFinite((Double) value)) {
-                    gauges.put(fullName, (Double) value);
-                }
-            } else if (value != null && value instanceof Number) {
-                gauges.put(fullName, ((Number) value).doubleValue());
+                points.addGauge(id, ((BigInteger) value).doubleValue());
+            } else if (value instanceof Number) {
+                points.addGauge(id, ((Number) value).doubleValue());
             }
             return this;
         }
 
-        private <T> DataAccumulator addSubCounter(MetricPart<T, Long> metricPart,
-                                                  Map.Entry<String, ? extends T> counterEntry) {
-            String nameWithSuffix = metricPart.getMetricNameWithSuffix(counterEntry.getKey());
-            String fullName = prefix.map(p -> p + nameWithSuffix).orElse(nameWithSuffix);
-            counters.put(fullName, metricPart.getData(counterEntry.getValue()));
+        private <T> DataAccumulator addSubCounters(List<ReportPlan.Part<T, Long>> parts, T input) {
+            for (int i = 0; i < parts.size(); i++) {
+                ReportPlan.Part<T, Long> part = parts.get(i);
+                points.addCounter(part.getId(), part.getData(input));
+            }
             return this;
         }
 
-        private <T> DataAccumulator addSubGauge(MetricPart<T, Object> metricPart,
-                                                Map.Entry<String, ? extends T> gaugeEntry) {
-            String nameWithSuffix = metricPart.getMetricNameWithSuffix(gaugeEntry.getKey());
-            String fullName = prefix.map(p -> p + nameWithSuffix).orElse(nameWithSuffix);
-            Object value = metricPart.getData(gaugeEntry.getValue());
-            if (value instanceof BigDecimal) {
-                gauges.put(fullName, ((BigDecimal) value).doubleValue());
-            } else if (value != null && value.getClass().isAssignableFrom(Double.class)
-                    && !Double.isNaN((Double) value) && Double.isFinite((Double) value)) {
-                gauges.put(fullName, (Double) value);
+        private <T> DataAccumulator addSubGauges(List<ReportPlan.Part<T, Object>> parts, T input) {
+            for (int i = 0; i < parts.size(); i++) {
+                ReportPlan.Part<T, Object> part = parts.get(i);
+                Object value = part.getData(input);
+                if (value instanceof BigDecimal) {
+                    points.addGauge(part.getId(), ((BigDecimal) value).doubleValue());
+                } else if (value != null && value.getClass().isAssignableFrom(Double.class)
+                        && !Double.isNaN((Double) value) && Double.isFinite((Double) value)) {
+                    points.addGauge(part.getId(), (Double) value);
+                }
             }
             return this;
         }
@@ -22,6 +22,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -29,6 +30,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 
+import org.hawkular.metrics.reporter.http.ByteBufferPool;
 import org.hawkular.metrics.reporter.http.HawkularHttpClient;
 import org.hawkular.metrics.reporter.http.JdkHawkularHttpClient;
 
@@ -39,8 +41,10 @@ import com.codahale.metrics.MetricRegistry;
 
     private static final String KEY_HEADER_TENANT = "Hawkular-Tenant";
     private static final String KEY_HEADER_AUTHORIZATION = "Authorization";
+    private static final int MAX_POOLED_BUFFERS = 16;
 
     private final MetricRegistry registry;
+    private final List<SourceRegistry> otherRegistries = new ArrayList<>();
     private String uri = "http://localhost:8080";
     private Map<String, String> headers = new HashMap<>();
     private Optional<String> prefix = Optional.empty();
@@ -54,8 +58,37 @@ import com.codahale.metrics.MetricRegistry;
     private boolean tagComposition = true;
     private Optional<Long> failoverCacheDuration = Optional.of(1000L * 60L * 10L); // In milliseconds; default: 10min
     private Optional<Integer> failoverCacheMaxSize = Optional.empty();
+    private Optional<Long> failoverCacheMaxBytes = Optional.empty();
+    private int connectTimeout = JdkHawkularHttpClient.DEFAULT_CONNECT_TIMEOUT;
+    private int readTimeout = JdkHawkularHttpClient.DEFAULT_READ_TIMEOUT;
+    private Optional<Integer> circuitBreakerFailures = Optional.empty();
+    private long backoffInitialDelay = JdkHawkularHttpClient.DEFAULT_BACKOFF_INITIAL_DELAY;
+    private long backoffMaxDelay = JdkHawkularHttpClient.DEFAULT_BACKOFF_MAX_DELAY;
+    private long circuitBreakerOpenDuration = 1000L * 30L; // In milliseconds; default: 30s
+    private boolean failoverDownsampling = false;
     private final Map<String, Set<String>> namedMetricsComposition = new HashMap<>();
     private final Collection<RegexContainer<Set<String>>> regexComposition = new ArrayList<>();
+    private final Map<String, Buckets> namedBuckets = new HashMap<>();
+    private final Collection<RegexContainer<Buckets>> regexBuckets = new ArrayList<>();
+    private final Set<String> namedSampledGauges = new HashSet<>();
+    private final Collection<RegexContainer<Boolean>> regexSampledGauges = new ArrayList<>();
+    private long gaugeSamplingPeriod = 1000L; // In milliseconds; default: 1s
+    private int batchCycles = 1;
+    private Optional<Long> batchMaxBytes = Optional.empty();
+    private boolean sharedRuntime = false;
+    private int sharedRuntimeThreads = 1;
+    private boolean virtualThreads = false;
+    private Optional<Integer> sendQueueCapacity = Optional.empty();
+    private SendQueueOverflowPolicy sendQueueOverflowPolicy = SendQueueOverflowPolicy.DROP_OLDEST;
+    private Optional<Integer> maxSeries = Optional.empty();
+    private final List<RegexContainer<Integer>> seriesLimits = new ArrayList<>();
+    private int tagCacheSize = 100000;
+    private Optional<ReportPhase> reportPhase = Optional.empty();
+    private Optional<Long> collectionBudget = Optional.empty();
+    private final Map<String, MetricPriority> namedPriorities = new HashMap<>();
+    private final Collection<RegexContainer<MetricPriority>> regexPriorities = new ArrayList<>();
+    private final Map<String, String> namedTenantRoutes = new HashMap<>();
+    private final Collection<RegexContainer<String>> regexTenantRoutes = new ArrayList<>();
 
     /**
      * Create a new builder for an {@link HawkularReporter}
@@ -98,8 +131,84 @@ import com.codahale.metrics.MetricRegistry;
         if (config.getMetricComposition() != null) {
             this.metricComposition(config.getMetricComposition());
         }
+        if (config.getBucketsComposition() != null) {
+            config.getBucketsComposition().forEach((k, v) -> this.setBucketsComposition(k, Buckets.of(v)));
+        }
+        if (config.getSampledGauges() != null) {
+            config.getSampledGauges().forEach(this::sampleGauge);
+        }
+        if (config.getGaugeSamplingPeriod() != null) {
+            this.gaugeSamplingPeriod(config.getGaugeSamplingPeriod());
+        }
+        if (config.getBatchCycles() != null) {
+            this.batchCycles(config.getBatchCycles());
+        }
+        if (config.getBatchMaxBytes() != null) {
+            this.batchMaxBytes(config.getBatchMaxBytes());
+        }
+        if (config.getSharedRuntime() != null && config.getSharedRuntime()) {
+            this.useSharedRuntime();
+        }
+        if (config.getSharedRuntimeThreads() != null) {
+            this.sharedRuntimeThreads = config.getSharedRuntimeThreads();
+        }
+        if (config.getVirtualThreads() != null) {
+            this.virtualThreads = config.getVirtualThreads();
+        }
+        if (config.getSendQueueCapacity() != null) {
+            this.sendQueue(config.getSendQueueCapacity());
+        }
+        if (config.getSendQueueOverflowPolicy() != null) {
+            this.sendQueueOverflowPolicy = config.getSendQueueOverflowPolicy();
+        }
+        if (config.getTenantRoutes() != null) {
+            this.tenantRoutes(config.getTenantRoutes());
+        }
+        if (config.getCollectionBudget() != null) {
+            this.collectionBudget(config.getCollectionBudget());
+        }
+        if (config.getMetricPriorities() != null) {
+            config.getMetricPriorities().forEach(this::setMetricPriority);
+        }
+        if (config.getReportPhaseKey() != null) {
+            this.reportPhase(config.getReportPhaseKey());
+        }
+        if (config.getReportJitter() != null && config.getReportJitter()) {
+            this.reportJitter();
+        }
+        if (config.getTagCacheSize() != null) {
+            this.tagCacheSize(config.getTagCacheSize());
+        }
+        if (config.getMaxSeries() != null) {
+            this.maxSeries(config.getMaxSeries());
+        }
+        if (config.getSeriesLimits() != null) {
+            config.getSeriesLimits().forEach(this::maxSeries);
+        }
+        if (config.getFailoverDownsampling() != null) {
+            this.failoverDownsampling = config.getFailoverDownsampling();
+        }
+        if (config.getConnectTimeout() != null) {
+            this.connectTimeout = config.getConnectTimeout();
+        }
+        if (config.getReadTimeout() != null) {
+            this.readTimeout = config.getReadTimeout();
+        }
+        if (config.getBackoffInitialDelay() != null) {
+            this.backoffInitialDelay = config.getBackoffInitialDelay();
+        }
+        if (config.getBackoffMaxDelay() != null) {
+            this.backoffMaxDelay = config.getBackoffMaxDelay();
+        }
+        if (config.getCircuitBreakerOpenDuration() != null) {
+            this.circuitBreakerOpenDuration = config.getCircuitBreakerOpenDuration();
+        }
+        if (config.getCircuitBreakerFailures() != null) {
+            this.circuitBreaker(config.getCircuitBreakerFailures(), circuitBreakerOpenDuration);
+        }
         failoverCacheDuration = Optional.ofNullable(config.getFailoverCacheDuration());
         failoverCacheMaxSize = Optional.ofNullable(config.getFailoverCacheMaxSize());
+        failoverCacheMaxBytes = Optional.ofNullable(config.getFailoverCacheMaxBytes());
         return this;
     }
 
@@ -143,6 +252,30 @@ import com.codahale.metrics.MetricRegistry;
         return this;
     }
 
+    /**
+     * Report metrics of another registry along with the main one: they are collected in the same pass and sent in the
+     * same payloads, with the same settings<br/>
+     * Metric names must be unique across registries, else only the first one is reported
+     */
+    public HawkularReporterBuilder addRegistry(MetricRegistry otherRegistry) {
+        return addRegistry(otherRegistry, "", Collections.emptyMap());
+    }
+
+    /**
+     * Report metrics of another registry along with the main one: they are collected in the same pass and sent in the
+     * same payloads, with the same settings<br/>
+     * Metric names of this registry are prefixed with the registry prefix, which is what other settings such as
+     * per-metric tags or tenant routes match. The reporter prefix, if any, still comes first.
+     * @param otherRegistry registry to report
+     * @param registryPrefix prefix for names of this registry metrics, may be empty
+     * @param registryTags global tags applied to this registry metrics only, added to the reporter global tags
+     */
+    public HawkularReporterBuilder addRegistry(MetricRegistry otherRegistry, String registryPrefix,
+                                               Map<String, String> registryTags) {
+        otherRegistries.add(new SourceRegistry(otherRegistry, registryPrefix, new HashMap<>(registryTags)));
+        return this;
+    }
+
     /**
      * Configure a prefix for each metric name. Optional, but useful to identify single hosts
      */
@@ -304,6 +437,263 @@ import com.codahale.metrics.MetricRegistry;
         return this;
     }
 
+    /**
+     * Export distributions of the given histogram or timer as cumulative bucket counters (opt-in).<br/>
+     * Each bucket is reported as a counter suffixed with "le.&lt;boundary&gt;", regardless of the metric composition.
+     * Unlike percentiles, these counters can be summed across instances on the server side.
+     * @param metric the metric name, or a regex enclosed with slashes
+     * @param buckets buckets boundaries, see {@link Buckets#of(long...)} and {@link Buckets#logLinear}
+     */
+    public HawkularReporterBuilder setBucketsComposition(String metric, Buckets buckets) {
+        Optional<RegexContainer<Buckets>> optRegexBuckets = RegexContainer.checkAndCreate(metric, buckets);
+        if (optRegexBuckets.isPresent()) {
+            regexBuckets.add(optRegexBuckets.get());
+        } else {
+            namedBuckets.put(metric, buckets);
+        }
+        return this;
+    }
+
+    /**
+     * Export distributions of histograms and timers matching this regex as cumulative bucket counters (opt-in)
+     * @param pattern the regex pattern
+     * @param buckets buckets boundaries, see {@link Buckets#of(long...)} and {@link Buckets#logLinear}
+     */
+    public HawkularReporterBuilder setRegexBucketsComposition(Pattern pattern, Buckets buckets) {
+        regexBuckets.add(new RegexContainer<>(pattern, buckets));
+        return this;
+    }
+
+    /**
+     * Sample a gauge at a higher rate than the report interval (opt-in).<br/>
+     * Instead of its value read at report time, the gauge is reported as "min", "max" and "avg" series computed over
+     * the samples taken since the previous report. See {@link #gaugeSamplingPeriod(long)}
+     * @param metric the metric name, or a regex enclosed with slashes
+     */
+    public HawkularReporterBuilder sampleGauge(String metric) {
+        Optional<RegexContainer<Boolean>> optRegex = RegexContainer.checkAndCreate(metric, true);
+        if (optRegex.isPresent()) {
+            regexSampledGauges.add(optRegex.get());
+        } else {
+            namedSampledGauges.add(metric);
+        }
+        return this;
+    }
+
+    /**
+     * Sample gauges matching this regex at a higher rate than the report interval (opt-in)
+     * @param pattern the regex pattern
+     */
+    public HawkularReporterBuilder sampleGauges(Pattern pattern) {
+        regexSampledGauges.add(new RegexContainer<>(pattern, true));
+        return this;
+    }
+
+    /**
+     * Set the sampling period of sampled gauges (in milliseconds). Default is 1 second
+     * @param milliseconds sampling period
+     */
+    public HawkularReporterBuilder gaugeSamplingPeriod(long milliseconds) {
+        gaugeSamplingPeriod = milliseconds;
+        return this;
+    }
+
+    /**
+     * Buffer data collected over several cycles and send them as a single request, with multiple data points per
+     * metric. Collection still happens at every report interval, so resolution is kept.<br/>
+     * By default there is no batching (1 cycle per request)
+     * @param cycles number of collection cycles per request
+     */
+    public HawkularReporterBuilder batchCycles(int cycles) {
+        this.batchCycles = cycles;
+        return this;
+    }
+
+    /**
+     * When cycles are batched, send the buffered data before reaching the number of cycles if its estimated
+     * payload size reaches this threshold. See {@link #batchCycles(int)}
+     * @param bytes estimated payload size threshold, in bytes
+     */
+    public HawkularReporterBuilder batchMaxBytes(long bytes) {
+        this.batchMaxBytes = Optional.of(bytes);
+        return this;
+    }
+
+    /**
+     * Use the reporting runtime shared by all reporters of the JVM that opt in for it, made of a single scheduler and
+     * a single failover cache. See {@link HawkularReportingRuntime}
+     */
+    public HawkularReporterBuilder useSharedRuntime() {
+        this.sharedRuntime = true;
+        return this;
+    }
+
+    /**
+     * Use the reporting runtime shared by all reporters of the JVM that opt in for it. Settings, including failover
+     * cache settings, are only applied if the shared runtime doesn't exist yet.
+     * @param threads number of threads of the shared scheduler
+     * @param virtualThreads use virtual threads for the shared scheduler, when supported by the JVM
+     */
+    public HawkularReporterBuilder useSharedRuntime(int threads, boolean virtualThreads) {
+        this.sharedRuntime = true;
+        this.sharedRuntimeThreads = threads;
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /**
+     * Send payloads from a dedicated thread, through a bounded queue, so that a slow or unreachable server doesn't
+     * delay metrics collection. By default, payloads are sent synchronously from the reporting thread.<br/>
+     * When the queue is full, the oldest payload is dropped.
+     * @param capacity maximum number of payloads waiting to be sent
+     */
+    public HawkularReporterBuilder sendQueue(int capacity) {
+        this.sendQueueCapacity = Optional.of(capacity);
+        return this;
+    }
+
+    /**
+     * Send payloads from a dedicated thread, through a bounded queue. See {@link #sendQueue(int)}
+     * @param capacity maximum number of payloads waiting to be sent
+     * @param overflowPolicy what to do with payloads when the queue is full
+     */
+    public HawkularReporterBuilder sendQueue(int capacity, SendQueueOverflowPolicy overflowPolicy) {
+        this.sendQueueCapacity = Optional.of(capacity);
+        this.sendQueueOverflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /**
+     * Limit the time spent collecting metrics at each report. Metrics are collected by priority (see
+     * {@link #setMetricPriority(String, MetricPriority)}); when the budget is spent, remaining metrics are deferred
+     * to the next report, except high-priority ones which are always collected.<br/>
+     * The number of deferred metrics is reported in the "hawkular.reporter.deferred" gauge.
+     * @param budgetMs collection time budget, in milliseconds
+     */
+    public HawkularReporterBuilder collectionBudget(long budgetMs) {
+        this.collectionBudget = Optional.of(budgetMs);
+        return this;
+    }
+
+    /**
+     * Set the collection priority of a metric, used when a collection budget is set. Default is
+     * {@link MetricPriority#NORMAL}
+     * @param metric the metric name, or a regex enclosed with slashes
+     * @param priority the collection priority
+     */
+    public HawkularReporterBuilder setMetricPriority(String metric, MetricPriority priority) {
+        Optional<RegexContainer<MetricPriority>> optRegex = RegexContainer.checkAndCreate(metric, priority);
+        if (optRegex.isPresent()) {
+            regexPriorities.add(optRegex.get());
+        } else {
+            namedPriorities.put(metric, priority);
+        }
+        return this;
+    }
+
+    /**
+     * Set the collection priority of metrics matching a regex, used when a collection budget is set
+     * @param pattern the regex pattern
+     * @param priority the collection priority
+     */
+    public HawkularReporterBuilder setRegexMetricPriority(Pattern pattern, MetricPriority priority) {
+        regexPriorities.add(new RegexContainer<>(pattern, priority));
+        return this;
+    }
+
+    /**
+     * Run reports at a fixed offset within the report interval, derived from an instance key such as the host or pod
+     * name. Instances sharing the same interval then post at different times, spreading the load on the server.<br/>
+     * Data points are timestamped with the interval boundary, so they stay aligned across instances.
+     * @param instanceKey key identifying this instance; the same key always gets the same offset
+     */
+    public HawkularReporterBuilder reportPhase(String instanceKey) {
+        this.reportPhase = Optional.of(ReportPhase.hashed(instanceKey));
+        return this;
+    }
+
+    /**
+     * Run reports at a random offset within the report interval, picked when the reporter starts. See
+     * {@link #reportPhase(String)}
+     */
+    public HawkularReporterBuilder reportJitter() {
+        this.reportPhase = Optional.of(ReportPhase.random());
+        return this;
+    }
+
+    /**
+     * Set how many series are remembered with the tags that were last sent for them, so that identical tags are not
+     * sent again when a metric is removed and re-added. Default is 100000. Set to 0 to always send tags
+     * @param tagCacheSize maximum number of remembered series
+     */
+    public HawkularReporterBuilder tagCacheSize(int tagCacheSize) {
+        this.tagCacheSize = tagCacheSize;
+        return this;
+    }
+
+    /**
+     * Limit the total number of reported series. Each part of a decomposed metric is a series: for instance, a timer
+     * counts as 15 series with the default composition.<br/>
+     * Metrics are admitted when registered, as long as the limit is not reached. Metrics beyond the limit are neither
+     * tagged nor reported; their number of series is reported in the "hawkular.reporter.series.overflow" gauge.
+     * @param maxSeries maximum number of series
+     */
+    public HawkularReporterBuilder maxSeries(int maxSeries) {
+        this.maxSeries = Optional.of(maxSeries);
+        return this;
+    }
+
+    /**
+     * Limit the number of reported series for metrics matching a pattern. See {@link #maxSeries(int)}.<br/>
+     * When several patterns match a metric, only the first one that was set applies.
+     * @param namePattern a metric name prefix, or a regex enclosed with slashes
+     * @param maxSeries maximum number of series for the metrics matching this pattern
+     */
+    public HawkularReporterBuilder maxSeries(String namePattern, int maxSeries) {
+        Optional<RegexContainer<Integer>> optRegex = RegexContainer.checkAndCreate(namePattern, maxSeries);
+        seriesLimits.add(optRegex.orElseGet(() ->
+                new RegexContainer<>(Pattern.compile("^" + Pattern.quote(namePattern)), maxSeries)));
+        return this;
+    }
+
+    /**
+     * Set all tenant routes at once. It overrides any tenant route that was already set.<br/>
+     * Metrics matching a route are reported to the given tenant instead of the one set in the builder constructor,
+     * in the same collection pass.
+     * @param routes per-metric tenants; keys are metric names or regex (enclosed with slashes)
+     */
+    public HawkularReporterBuilder tenantRoutes(Map<String, String> routes) {
+        this.namedTenantRoutes.clear();
+        this.regexTenantRoutes.clear();
+        routes.forEach(this::addTenantRoute);
+        return this;
+    }
+
+    /**
+     * Report a given metric to another tenant than the default one
+     * @param metric the metric name, or a regex enclosed with slashes
+     * @param tenant the Hawkular tenant ID
+     */
+    public HawkularReporterBuilder addTenantRoute(String metric, String tenant) {
+        Optional<RegexContainer<String>> optRegexRoute = RegexContainer.checkAndCreate(metric, tenant);
+        if (optRegexRoute.isPresent()) {
+            regexTenantRoutes.add(optRegexRoute.get());
+        } else {
+            namedTenantRoutes.put(metric, tenant);
+        }
+        return this;
+    }
+
+    /**
+     * Report metrics matching this regex to another tenant than the default one
+     * @param pattern the regex pattern
+     * @param tenant the Hawkular tenant ID
+     */
+    public HawkularReporterBuilder addRegexTenantRoute(Pattern pattern, String tenant) {
+        regexTenantRoutes.add(new RegexContainer<>(pattern, tenant));
+        return this;
+    }
+
     /**
      * Set the failover cache duration (in milliseconds)<br/>
      * This cache is used to store post attempts in memory when the hawkular server cannot be reached<br/>
@@ -340,6 +730,7 @@ import com.codahale.metrics.MetricRegistry;
     /**
      * Set the failover cache maximum size, in number of requests<br/>
      * This cache is used to store post attempts in memory when the hawkular server cannot be reached<br/>
+     * Tag requests don't count in this maximum: they are kept apart, only the latest one for each series<br/>
      * By default this parameter is unset, which means there's no maximum
      * @param reqs max number of requests to store
      */
@@ -348,6 +739,70 @@ import com.codahale.metrics.MetricRegistry;
         return this;
     }
 
+    /**
+     * Set the failover cache maximum size, in bytes<br/>
+     * When set, requests kept in the failover cache are compressed one by one and held in direct memory, so that the
+     * heap doesn't grow while the hawkular server cannot be reached. The budget applies to compressed bytes. It can
+     * be combined with {@link #failoverCacheMaxSize(int)}<br/>
+     * By default this parameter is unset, which means there's no maximum
+     * @param bytes max number of compressed bytes to store
+     */
+    public HawkularReporterBuilder failoverCacheMaxBytes(long bytes) {
+        failoverCacheMaxBytes = Optional.of(bytes);
+        return this;
+    }
+
+    /**
+     * When the failover cache reaches its maximum size, roll older data points up into coarser resolution instead of
+     * dropping the oldest requests: pairs of points are merged, keeping the last value for counters and the average
+     * for gauges. The same cache size then covers longer outages, older data being less precise.<br/>
+     * Has no effect without {@link #failoverCacheMaxSize(int)} or {@link #failoverCacheMaxBytes(long)}, nor with a
+     * custom {@link HawkularHttpClient} that doesn't support it
+     */
+    public HawkularReporterBuilder failoverDownsampling() {
+        failoverDownsampling = true;
+        return this;
+    }
+
+    /**
+     * Set the connect and read timeouts of requests to Hawkular, in milliseconds. 0 means no timeout<br/>
+     * Default timeouts are 10 seconds to connect and 30 seconds to read
+     */
+    public HawkularReporterBuilder timeouts(int connectTimeoutMs, int readTimeoutMs) {
+        this.connectTimeout = connectTimeoutMs;
+        this.readTimeout = readTimeoutMs;
+        return this;
+    }
+
+    /**
+     * Set how requests back off when Hawkular signals pressure with HTTP 429 or 503. Requests are paused for at least
+     * the time required by the Retry-After header, even beyond the maximum, while metrics keep being collected into
+     * the failover cache. Consecutive signals double the pause from the initial delay, up to the maximum, and each
+     * successful request shortens it again by the initial delay. After a pause, the failover backlog is replayed a few
+     * requests per report, a budget that is halved by pressure signals and grows by one request per report
+     * otherwise<br/>
+     * Default initial delay is 1 second and default maximum is 5 minutes
+     */
+    public HawkularReporterBuilder backoff(long initialDelayMs, long maxDelayMs) {
+        this.backoffInitialDelay = initialDelayMs;
+        this.backoffMaxDelay = maxDelayMs;
+        return this;
+    }
+
+    /**
+     * Suspend requests to Hawkular after some consecutive failures (network errors, timeouts or server errors).
+     * While suspended, data goes straight to the failover cache. Once the open duration has elapsed, a single request
+     * probes the server: requests resume if it succeeds, else they are suspended again<br/>
+     * By default there is no circuit breaker
+     * @param consecutiveFailures number of consecutive failures that suspend requests
+     * @param openDurationMs time before probing the server again, in milliseconds
+     */
+    public HawkularReporterBuilder circuitBreaker(int consecutiveFailures, long openDurationMs) {
+        this.circuitBreakerFailures = Optional.of(consecutiveFailures);
+        this.circuitBreakerOpenDuration = openDurationMs;
+        return this;
+    }
+
     /**
      * Use a custom {@link HawkularHttpClient}
      * @param httpClientProvider function that provides a custom {@link HawkularHttpClient} from input URI as String
@@ -361,14 +816,103 @@ import com.codahale.metrics.MetricRegistry;
      * Build the {@link HawkularReporter}
      */
     public HawkularReporter build() {
+        Optional<HawkularReportingRuntime> runtime = sharedRuntime
+                ? Optional.of(HawkularReportingRuntime.acquire(sharedRuntimeThreads, virtualThreads, cache -> {
+                    cache.setOptions(failoverCacheDuration, failoverCacheMaxSize);
+                    cache.setMaxBytes(failoverCacheMaxBytes);
+                    cache.setDownsampling(failoverDownsampling);
+                }))
+                : Optional.empty();
+        String defaultTenant = headers.get(KEY_HEADER_TENANT);
+        Map<String, HawkularHttpClient> clientsPerTenant = new HashMap<>();
+        clientsPerTenant.put(defaultTenant, createClient(headers, runtime));
+        namedTenantRoutes.values().forEach(tenant ->
+                clientsPerTenant.computeIfAbsent(tenant, t -> createClient(t, runtime)));
+        for (RegexContainer<String> reg : regexTenantRoutes) {
+            clientsPerTenant.computeIfAbsent(reg.getContent(), t -> createClient(t, runtime));
+        }
+        TenantRouter router = new TenantRouter(defaultTenant, namedTenantRoutes, regexTenantRoutes,
+                clientsPerTenant);
+        MetricsDecomposer decomposer = new MetricsDecomposer(buildComposition(), namedBuckets, regexBuckets,
+                namedSampledGauges, regexSampledGauges);
+        CardinalityLimiter cardinalityLimiter = new CardinalityLimiter(maxSeries, seriesLimits);
+        // Several registries are reported through a union of them, seen by the reporter as a single registry
+        MetricRegistry reportedRegistry = registry;
+        Function<String, Map<String, String>> sourceTags = name -> Collections.emptyMap();
+        Optional<RegistryUnion> registryUnion = Optional.empty();
+        if (!otherRegistries.isEmpty()) {
+            RegistryUnion union = new RegistryUnion();
+            union.add(registry, "", Collections.emptyMap());
+            otherRegistries.forEach(source -> union.add(source.registry, source.prefix, source.tags));
+            reportedRegistry = union.getRegistry();
+            sourceTags = union::getSourceTags;
+            registryUnion = Optional.of(union);
+        }
+        MetricsTagger tagger = new MetricsTagger(prefix, buildTagRules(), sourceTags, decomposer, cardinalityLimiter,
+                new TagFingerprints(tagCacheSize), router, reportedRegistry, filter);
+        BucketCounters bucketCounters = new BucketCounters();
+        reportedRegistry.addListener(bucketCounters);
+        GaugeSampler gaugeSampler = new GaugeSampler(decomposer, filter, gaugeSamplingPeriod, reportedRegistry);
+        // Enough buffers for queued payloads plus the one being encoded, per tenant
+        ByteBufferPool bufferPool = new ByteBufferPool(Math.min(MAX_POOLED_BUFFERS,
+                (sendQueueCapacity.orElse(0) + 1) * clientsPerTenant.size()));
+        return new HawkularReporter(reportedRegistry, router, prefix, decomposer, tagger, cardinalityLimiter,
+                bucketCounters, gaugeSampler, registryUnion, batchCycles, batchMaxBytes, runtime,
+                sendQueueCapacity.map(capacity -> new SendQueue(capacity, sendQueueOverflowPolicy, bufferPool)),
+                reportPhase, collectionBudget.map(budget -> new CollectionBudget(budget, namedPriorities,
+                        regexPriorities)), bufferPool, rateUnit, durationUnit, filter);
+    }
+
+    /**
+     * Compile tagging rules, as a snapshot that isn't affected by later changes on this builder
+     */
+    MetricsTagger.Rules buildTagRules() {
+        Map<String, Map<String, String>> perMetricTagsCopy = new HashMap<>();
+        perMetricTags.forEach((k, v) -> perMetricTagsCopy.put(k, new HashMap<>(v)));
+        return new MetricsTagger.Rules(new HashMap<>(globalTags), perMetricTagsCopy, new ArrayList<>(regexTags),
+                tagComposition);
+    }
+
+    /**
+     * Compile composition rules, as a snapshot that isn't affected by later changes on this builder
+     */
+    MetricsDecomposer.Composition buildComposition() {
+        return new MetricsDecomposer.Composition(new HashMap<>(namedMetricsComposition),
+                new ArrayList<>(regexComposition));
+    }
+
+    private HawkularHttpClient createClient(String tenant, Optional<HawkularReportingRuntime> runtime) {
+        Map<String, String> tenantHeaders = new HashMap<>(headers);
+        tenantHeaders.put(KEY_HEADER_TENANT, tenant);
+        return createClient(tenantHeaders, runtime);
+    }
+
+    private HawkularHttpClient createClient(Map<String, String> clientHeaders,
+                                            Optional<HawkularReportingRuntime> runtime) {
         HawkularHttpClient client = httpClientProvider
                 .map(provider -> provider.apply(uri))
-                .orElseGet(() -> new JdkHawkularHttpClient(uri));
-        client.addHeaders(headers);
+                .orElseGet(() -> runtime
+                        .map(r -> new JdkHawkularHttpClient(uri, r.getFailoverCache()))
+                        .orElseGet(() -> new JdkHawkularHttpClient(uri)));
+        client.addHeaders(clientHeaders);
         client.setFailoverOptions(failoverCacheDuration, failoverCacheMaxSize);
-        MetricsDecomposer decomposer = new MetricsDecomposer(namedMetricsComposition, regexComposition);
-        MetricsTagger tagger = new MetricsTagger(prefix, globalTags, perMetricTags, regexTags, tagComposition,
-                decomposer, client, registry, filter);
-        return new HawkularReporter(registry, client, prefix, decomposer, tagger, rateUnit, durationUnit, filter);
+        client.setFailoverCacheMaxBytes(failoverCacheMaxBytes);
+        client.setTimeouts(connectTimeout, readTimeout);
+        client.setBackoff(backoffInitialDelay, backoffMaxDelay);
+        circuitBreakerFailures.ifPresent(failures -> client.setCircuitBreaker(failures, circuitBreakerOpenDuration));
+        client.setFailoverDownsampling(failoverDownsampling);
+        return client;
+    }
+
+    private static final class SourceRegistry {
+        private final MetricRegistry registry;
+        private final String prefix;
+        private final Map<String, String> tags;
+
+        private SourceRegistry(MetricRegistry registry, String prefix, Map<String, String> tags) {
+            this.registry = registry;
+            this.prefix = prefix;
+            this.tags = tags;
+        }
     }
 }
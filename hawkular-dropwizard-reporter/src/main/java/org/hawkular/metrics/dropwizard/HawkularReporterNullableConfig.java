@@ -34,5 +34,31 @@ public interface HawkularReporterNullableConfig {
     String getPassword();
     Long getFailoverCacheDuration();
     Integer getFailoverCacheMaxSize();
+    Long getFailoverCacheMaxBytes();
+    Boolean getFailoverDownsampling();
+    Integer getConnectTimeout();
+    Integer getReadTimeout();
+    Integer getCircuitBreakerFailures();
+    Long getCircuitBreakerOpenDuration();
+    Long getBackoffInitialDelay();
+    Long getBackoffMaxDelay();
     Map<String, Collection<String>> getMetricComposition();
+    Map<String, String> getTenantRoutes();
+    Map<String, Collection<Long>> getBucketsComposition();
+    Collection<String> getSampledGauges();
+    Long getGaugeSamplingPeriod();
+    Integer getBatchCycles();
+    Long getBatchMaxBytes();
+    Boolean getSharedRuntime();
+    Integer getSharedRuntimeThreads();
+    Boolean getVirtualThreads();
+    Integer getSendQueueCapacity();
+    SendQueueOverflowPolicy getSendQueueOverflowPolicy();
+    Integer getTagCacheSize();
+    String getReportPhaseKey();
+    Long getCollectionBudget();
+    Map<String, MetricPriority> getMetricPriorities();
+    Boolean getReportJitter();
+    Integer getMaxSeries();
+    Map<String, Integer> getSeriesLimits();
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.hawkular.metrics.reporter.http.FailoverCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reporting runtime shared by all the {@link HawkularReporter} of the JVM that opt in for it: a single scheduler and a
+ * single failover cache, instead of one of each per reporter.<br/>
+ * HTTP connections are pooled JVM-wide by the JDK client (keep-alive cache), so they are shared as well.<br/>
+ * The runtime is reference-counted: it is created by the first reporter acquiring it, and shut down when the last
+ * one is stopped. Its settings are those of the first reporter that acquired it, including failover cache settings:
+ * other reporters only log a warning when theirs differ.
+ */
+public final class HawkularReportingRuntime {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HawkularReportingRuntime.class);
+
+    private static HawkularReportingRuntime shared;
+
+    private final ScheduledExecutorService scheduler;
+    private final FailoverCache failoverCache = new FailoverCache();
+    private int references = 0;
+
+    private HawkularReportingRuntime(int threads, boolean virtualThreads) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads,
+                threadFactory(virtualThreads));
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+    }
+
+    /**
+     * Get the shared runtime, creating it if necessary. Each call must be balanced by a call to {@link #release()}
+     * @param threads number of scheduler threads, if the runtime is created
+     * @param virtualThreads use virtual threads when the JVM supports them, if the runtime is created
+     * @param failoverSettings configures the failover cache, if the runtime is created
+     */
+    static synchronized HawkularReportingRuntime acquire(int threads, boolean virtualThreads,
+                                                         Consumer<FailoverCache> failoverSettings) {
+        if (shared == null) {
+            shared = new HawkularReportingRuntime(threads, virtualThreads);
+            failoverSettings.accept(shared.failoverCache);
+        }
+        shared.references++;
+        return shared;
+    }
+
+    void release() {
+        synchronized (HawkularReportingRuntime.class) {
+            references--;
+            if (references > 0) {
+                return;
+            }
+            if (shared == this) {
+                shared = null;
+            }
+        }
+        failoverCache.close();
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(1, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public FailoverCache getFailoverCache() {
+        return failoverCache;
+    }
+
+    public static synchronized int getReferences() {
+        return shared == null ? 0 : shared.references;
+    }
+
+    private static ThreadFactory threadFactory(boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                // Virtual threads are only available from Java 21: resolve them reflectively
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class, long.class)
+                        .invoke(builder, "hawkular-reporting-", 0L);
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                LOG.info("Virtual threads are not supported by this JVM, using platform threads");
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "hawkular-reporting-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
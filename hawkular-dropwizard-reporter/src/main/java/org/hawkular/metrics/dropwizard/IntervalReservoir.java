@@ -0,0 +1,344 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * Histogram reservoir recording all values of a report interval in log-linear buckets, and reset at each snapshot.
+ * <br/>
+ * Recording is lock-free and striped by thread, so it costs a few atomic increments with low contention. A snapshot
+ * waits for the values being recorded when it starts, so that each value is counted in exactly one snapshot. Memory is
+ * bounded and doesn't depend on the number of recorded values. Percentiles are approximated with a relative error
+ * bounded by the precision (about 3% with the default 5 bits), while min, max and mean are exact.<br/>
+ * Since each snapshot resets the reservoir, percentiles match the values recorded since the previous report. It must
+ * thus be read by a single reporter. Negative values are recorded as 0.
+ * <pre>
+ * Timer timer = registry.register("my.timer", new Timer(new IntervalReservoir()));
+ * </pre>
+ */
+public class IntervalReservoir implements Reservoir {
+
+    private static final int DEFAULT_PRECISION_BITS = 5;
+    private static final int DEFAULT_MAX_STRIPES = 4;
+    private static final int MAX_SNAPSHOT_VALUES = 1028;
+
+    private final int precisionBits;
+    private final int stripes;
+    private volatile Recorder current;
+    private Recorder spare;
+
+    public IntervalReservoir() {
+        this(DEFAULT_PRECISION_BITS, Math.min(DEFAULT_MAX_STRIPES, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Memory used is about 2 x stripes x (64 - precisionBits) x 2^precisionBits x 8 bytes, i.e. 60 KB with 5 bits
+     * and 2 stripes
+     * @param precisionBits number of bits of precision kept for each value: the relative error is at most
+     *                      2^-precisionBits
+     * @param concurrency expected number of concurrently recording threads, used to size stripes (at most 16)
+     */
+    public IntervalReservoir(int precisionBits, int concurrency) {
+        if (precisionBits < 1 || precisionBits > 10) {
+            throw new IllegalArgumentException("Precision must be between 1 and 10 bits");
+        }
+        this.precisionBits = precisionBits;
+        // Power of two, to pick a stripe with a mask
+        this.stripes = Integer.highestOneBit(Math.max(1, Math.min(concurrency, 16)));
+        this.current = new Recorder(precisionBits, stripes);
+        this.spare = new Recorder(precisionBits, stripes);
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, current.count());
+    }
+
+    @Override
+    public void update(long value) {
+        long positive = Math.max(0, value);
+        int stripeIndex = (int) Thread.currentThread().getId() & (stripes - 1);
+        while (true) {
+            Recorder recorder = current;
+            Stripe stripe = recorder.stripes[stripeIndex];
+            stripe.writers.incrementAndGet();
+            // If the recorder was swapped in between, the snapshot may not wait for this writer: use the new one
+            if (recorder == current) {
+                try {
+                    recorder.record(stripe, positive);
+                } finally {
+                    stripe.writers.decrementAndGet();
+                }
+                return;
+            }
+            stripe.writers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Get a snapshot of values recorded since the previous snapshot, and reset the reservoir
+     */
+    @Override
+    public synchronized Snapshot getSnapshot() {
+        Recorder recorded = current;
+        current = spare;
+        // Writers that picked the previous recorder before the swap complete before it is read and reset
+        recorded.awaitWriters();
+        Snapshot snapshot = recorded.toSnapshot();
+        recorded.reset();
+        spare = recorded;
+        return snapshot;
+    }
+
+    static int bucketIndex(long value, int precisionBits) {
+        int subBuckets = 1 << precisionBits;
+        if (value < 2 * subBuckets) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - precisionBits;
+        return shift * subBuckets + (int) (value >>> shift);
+    }
+
+    static long bucketLowerBound(int index, int precisionBits) {
+        int subBuckets = 1 << precisionBits;
+        if (index < 2 * subBuckets) {
+            return index;
+        }
+        int shift = index / subBuckets - 1;
+        long mantissa = index - shift * subBuckets;
+        return mantissa << shift;
+    }
+
+    static long bucketUpperBound(int index, int precisionBits) {
+        int subBuckets = 1 << precisionBits;
+        if (index < 2 * subBuckets) {
+            return index;
+        }
+        int shift = index / subBuckets - 1;
+        return bucketLowerBound(index, precisionBits) + (1L << shift) - 1;
+    }
+
+    private static final class Recorder {
+        private final int precisionBits;
+        private final Stripe[] stripes;
+
+        private Recorder(int precisionBits, int stripes) {
+            this.precisionBits = precisionBits;
+            this.stripes = new Stripe[stripes];
+            int buckets = (64 - precisionBits) << precisionBits;
+            for (int i = 0; i < stripes; i++) {
+                this.stripes[i] = new Stripe(buckets);
+            }
+        }
+
+        private void record(Stripe stripe, long value) {
+            stripe.counts.incrementAndGet(bucketIndex(value, precisionBits));
+            stripe.sum.addAndGet(value);
+            long min = stripe.min.get();
+            while (value < min && !stripe.min.compareAndSet(min, value)) {
+                min = stripe.min.get();
+            }
+            long max = stripe.max.get();
+            while (value > max && !stripe.max.compareAndSet(max, value)) {
+                max = stripe.max.get();
+            }
+        }
+
+        private void awaitWriters() {
+            for (Stripe stripe : stripes) {
+                while (stripe.writers.get() != 0) {
+                    Thread.yield();
+                }
+            }
+        }
+
+        private long count() {
+            long count = 0;
+            for (Stripe stripe : stripes) {
+                for (int i = 0; i < stripe.counts.length(); i++) {
+                    count += stripe.counts.get(i);
+                }
+            }
+            return count;
+        }
+
+        private BucketSnapshot toSnapshot() {
+            long[] counts = new long[stripes[0].counts.length()];
+            long sum = 0;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (Stripe stripe : stripes) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += stripe.counts.get(i);
+                }
+                sum += stripe.sum.get();
+                min = Math.min(min, stripe.min.get());
+                max = Math.max(max, stripe.max.get());
+            }
+            return new BucketSnapshot(precisionBits, counts, sum, min, max);
+        }
+
+        private void reset() {
+            for (Stripe stripe : stripes) {
+                for (int i = 0; i < stripe.counts.length(); i++) {
+                    stripe.counts.set(i, 0);
+                }
+                stripe.sum.set(0);
+                stripe.min.set(Long.MAX_VALUE);
+                stripe.max.set(Long.MIN_VALUE);
+            }
+        }
+    }
+
+    private static final class Stripe {
+        private final AtomicLongArray counts;
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicInteger writers = new AtomicInteger();
+
+        private Stripe(int buckets) {
+            this.counts = new AtomicLongArray(buckets);
+        }
+    }
+
+    static final class BucketSnapshot extends Snapshot {
+        private final int precisionBits;
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        private BucketSnapshot(int precisionBits, long[] counts, long sum, long min, long max) {
+            this.precisionBits = precisionBits;
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+            this.sum = sum;
+            this.min = total == 0 ? 0 : min;
+            this.max = total == 0 ? 0 : max;
+        }
+
+        /**
+         * Representative value of a bucket: its middle, within the recorded min and max
+         */
+        private double valueOf(int index) {
+            long lower = bucketLowerBound(index, precisionBits);
+            long upper = bucketUpperBound(index, precisionBits);
+            return Math.max(min, Math.min(max, lower + (upper - lower) / 2.0));
+        }
+
+        @Override
+        public double getValue(double quantile) {
+            if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+                throw new IllegalArgumentException(quantile + " is not in [0..1]");
+            }
+            if (count == 0) {
+                return 0.0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= rank) {
+                    return valueOf(i);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Values are bucket representatives, downsampled to at most 1028 values following the recorded distribution
+         */
+        @Override
+        public long[] getValues() {
+            int n = (int) Math.min(count, MAX_SNAPSHOT_VALUES);
+            long[] values = new long[n];
+            long cumulative = 0;
+            int bucket = -1;
+            for (int i = 0; i < n; i++) {
+                // Rank of the i-th value among all recorded values
+                long rank = (long) Math.ceil((i + 0.5) * count / n);
+                while (cumulative < rank && bucket < counts.length - 1) {
+                    bucket++;
+                    cumulative += counts[bucket];
+                }
+                values[i] = Math.round(valueOf(bucket));
+            }
+            return values;
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(Integer.MAX_VALUE, count);
+        }
+
+        @Override
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public double getMean() {
+            return count == 0 ? 0.0 : (double) sum / count;
+        }
+
+        @Override
+        public long getMin() {
+            return min;
+        }
+
+        @Override
+        public double getStdDev() {
+            if (count <= 1) {
+                return 0.0;
+            }
+            double mean = getMean();
+            double variance = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    double diff = valueOf(i) - mean;
+                    variance += counts[i] * diff * diff;
+                }
+            }
+            return Math.sqrt(variance / (count - 1));
+        }
+
+        @Override
+        public void dump(OutputStream output) {
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+                for (long value : getValues()) {
+                    out.printf("%d%n", value);
+                }
+            }
+        }
+    }
+}
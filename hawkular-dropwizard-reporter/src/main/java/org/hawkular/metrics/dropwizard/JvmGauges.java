@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.RuntimeMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+
+/**
+ * JVM and OS gauges, as {@link DoubleGauge} and {@link LongGauge} so that they are read without allocation.
+ * Only getters returning primitives are used (e.g. heap usage comes from {@link Runtime} rather than from
+ * {@link java.lang.management.MemoryMXBean}, which creates a new usage object at each call).<br>
+ * Register them with {@code registry.registerAll(new JvmGauges())}.
+ */
+public class JvmGauges implements MetricSet {
+
+    private final Map<String, Metric> gauges;
+
+    public JvmGauges() {
+        Map<String, Metric> map = new HashMap<>();
+        Runtime runtime = Runtime.getRuntime();
+        map.put("jvm.heap.used", (LongGauge) () -> runtime.totalMemory() - runtime.freeMemory());
+        map.put("jvm.heap.committed", (LongGauge) runtime::totalMemory);
+        map.put("jvm.heap.max", (LongGauge) runtime::maxMemory);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        map.put("jvm.threads.count", (LongGauge) threads::getThreadCount);
+        map.put("jvm.threads.daemon.count", (LongGauge) threads::getDaemonThreadCount);
+
+        ClassLoadingMXBean classes = ManagementFactory.getClassLoadingMXBean();
+        map.put("jvm.classes.loaded", (LongGauge) classes::getLoadedClassCount);
+
+        RuntimeMXBean jvm = ManagementFactory.getRuntimeMXBean();
+        map.put("jvm.uptime", (LongGauge) jvm::getUptime);
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String name = "jvm.gc." + gc.getName().replaceAll("\\s+", "-");
+            map.put(name + ".count", (LongGauge) gc::getCollectionCount);
+            map.put(name + ".time", (LongGauge) gc::getCollectionTime);
+        }
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        map.put("os.load.average", (DoubleGauge) os::getSystemLoadAverage);
+        map.put("os.processors", (LongGauge) os::getAvailableProcessors);
+        gauges = Collections.unmodifiableMap(map);
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        return gauges;
+    }
+}
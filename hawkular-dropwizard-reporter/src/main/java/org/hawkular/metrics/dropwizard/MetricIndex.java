@@ -0,0 +1,230 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+
+/**
+ * Filtered metrics of a registry, maintained from registry events. Reports iterate it directly, instead of filtering
+ * all metrics and building sorted maps of them at each cycle.<br/>
+ * Each entry holds the {@link ReportPlan} of its metric, resolved when the metric is added. Plans are resolved again
+ * lazily, at next report, once they are invalidated by a reload of rules.
+ */
+@SuppressWarnings("rawtypes")
+class MetricIndex implements MetricRegistryListener {
+
+    enum Kind { GAUGE, COUNTER, HISTOGRAM, METER, TIMER }
+
+    private final MetricRegistry registry;
+    private final MetricFilter filter;
+    private final BiFunction<String, Kind, ReportPlan> planner;
+    private final AtomicInteger generation = new AtomicInteger();
+    private final Map<String, Entry<Gauge>> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Entry<Counter>> counters = new ConcurrentHashMap<>();
+    private final Map<String, Entry<Histogram>> histograms = new ConcurrentHashMap<>();
+    private final Map<String, Entry<Meter>> meters = new ConcurrentHashMap<>();
+    private final Map<String, Entry<Timer>> timers = new ConcurrentHashMap<>();
+
+    /**
+     * @param planner resolves the plan of a metric, from its name and kind
+     */
+    MetricIndex(MetricRegistry registry, MetricFilter filter, BiFunction<String, Kind, ReportPlan> planner) {
+        this.registry = registry;
+        this.filter = filter;
+        this.planner = planner;
+        // Existing metrics are notified when the listener is added
+        registry.addListener(this);
+    }
+
+    /**
+     * Stop following the registry
+     */
+    void close() {
+        registry.removeListener(this);
+    }
+
+    Collection<Entry<Gauge>> getGauges() {
+        return gauges.values();
+    }
+
+    Collection<Entry<Counter>> getCounters() {
+        return counters.values();
+    }
+
+    Collection<Entry<Histogram>> getHistograms() {
+        return histograms.values();
+    }
+
+    Collection<Entry<Meter>> getMeters() {
+        return meters.values();
+    }
+
+    Collection<Entry<Timer>> getTimers() {
+        return timers.values();
+    }
+
+    boolean isEmpty() {
+        return gauges.isEmpty() && counters.isEmpty() && histograms.isEmpty() && meters.isEmpty()
+                && timers.isEmpty();
+    }
+
+    /**
+     * Create an entry that is not indexed, for metrics that are reported from outside of the index
+     */
+    <M extends Metric> Entry<M> entry(String name, M metric, Kind kind) {
+        return new Entry<>(name, metric, kind, generation.get(), planner.apply(name, kind));
+    }
+
+    /**
+     * Get the plan of an entry, resolving it again if rules were reloaded since it was resolved. Plans are only
+     * resolved again from the reporting thread
+     */
+    ReportPlan getPlan(Entry<?> entry) {
+        int current = generation.get();
+        if (entry.generation != current) {
+            entry.plan = planner.apply(entry.name, entry.kind);
+            entry.generation = current;
+        }
+        return entry.plan;
+    }
+
+    /**
+     * Invalidate plans, once the rules they are resolved from are reloaded
+     */
+    void invalidatePlans() {
+        generation.incrementAndGet();
+    }
+
+    @Override public void onGaugeAdded(String name, Gauge<?> gauge) {
+        if (filter.matches(name, gauge)) {
+            gauges.put(name, entry(name, gauge, Kind.GAUGE));
+        }
+    }
+
+    @Override public void onGaugeRemoved(String name) {
+        gauges.remove(name);
+    }
+
+    @Override public void onCounterAdded(String name, Counter counter) {
+        if (filter.matches(name, counter)) {
+            counters.put(name, entry(name, counter, Kind.COUNTER));
+        }
+    }
+
+    @Override public void onCounterRemoved(String name) {
+        counters.remove(name);
+    }
+
+    @Override public void onHistogramAdded(String name, Histogram histogram) {
+        if (filter.matches(name, histogram)) {
+            histograms.put(name, entry(name, histogram, Kind.HISTOGRAM));
+        }
+    }
+
+    @Override public void onHistogramRemoved(String name) {
+        histograms.remove(name);
+    }
+
+    @Override public void onMeterAdded(String name, Meter meter) {
+        if (filter.matches(name, meter)) {
+            meters.put(name, entry(name, meter, Kind.METER));
+        }
+    }
+
+    @Override public void onMeterRemoved(String name) {
+        meters.remove(name);
+    }
+
+    @Override public void onTimerAdded(String name, Timer timer) {
+        if (filter.matches(name, timer)) {
+            timers.put(name, entry(name, timer, Kind.TIMER));
+        }
+    }
+
+    @Override public void onTimerRemoved(String name) {
+        timers.remove(name);
+    }
+
+    /**
+     * An indexed metric, with its plan
+     */
+    static final class Entry<M extends Metric> {
+        private final String name;
+        private final M metric;
+        private final Kind kind;
+        // The generation is read before the plan is resolved: a plan resolved while rules are reloaded is resolved
+        // again at next report
+        private int generation;
+        private ReportPlan plan;
+        // Collection state, only used from the reporting thread
+        private int rank;
+        private boolean deferred;
+
+        private Entry(String name, M metric, Kind kind, int generation, ReportPlan plan) {
+            this.name = name;
+            this.metric = metric;
+            this.kind = kind;
+            this.generation = generation;
+            this.plan = plan;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        M getMetric() {
+            return metric;
+        }
+
+        Kind getKind() {
+            return kind;
+        }
+
+        int getRank() {
+            return rank;
+        }
+
+        void setRank(int rank) {
+            this.rank = rank;
+        }
+
+        /**
+         * Whether the metric was deferred at last report, because the collection budget was spent
+         */
+        boolean isDeferred() {
+            return deferred;
+        }
+
+        void setDeferred(boolean deferred) {
+            this.deferred = deferred;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+/**
+ * Collection priority of a metric, used when a collection time budget is set. See
+ * {@link HawkularReporterBuilder#collectionBudget(long)}
+ */
+public enum MetricPriority {
+    /**
+     * Always collected, first
+     */
+    HIGH,
+    /**
+     * Default priority: collected after high-priority metrics, as long as the budget allows it
+     */
+    NORMAL,
+    /**
+     * Collected last, as long as the budget allows it
+     */
+    LOW
+}
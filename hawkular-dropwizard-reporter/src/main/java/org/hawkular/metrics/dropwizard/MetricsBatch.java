@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.hawkular.metrics.reporter.http.DataPoints;
+import org.hawkular.metrics.reporter.http.HawkularJson;
+
+/**
+ * Buffers data points of several collection cycles, to be sent as a single request with multiple data points per id
+ */
+class MetricsBatch {
+
+    // Rough JSON size of a data point: {"timestamp":1484828372000,"value":123.456},
+    private static final int DATA_POINT_BYTES = 45;
+    // Rough JSON overhead of a metric entry: {"id":"","dataPoints":[]},
+    private static final int METRIC_OVERHEAD_BYTES = 27;
+
+    private final Map<String, Map<Long, Long>> counters = new HashMap<>();
+    private final Map<String, Map<Long, Double>> gauges = new HashMap<>();
+    private long estimatedBytes = 0;
+
+    void add(long timestamp, DataPoints points) {
+        for (int i = 0; i < points.getCounterCount(); i++) {
+            addPoint(counters, points.getCounterId(i), timestamp, points.getCounterValue(i));
+        }
+        for (int i = 0; i < points.getGaugeCount(); i++) {
+            addPoint(gauges, points.getGaugeId(i), timestamp, points.getGaugeValue(i));
+        }
+    }
+
+    private <T> void addPoint(Map<String, Map<Long, T>> points, String id, long timestamp, T value) {
+        Map<Long, T> idPoints = points.get(id);
+        if (idPoints == null) {
+            idPoints = new TreeMap<>();
+            points.put(id, idPoints);
+            estimatedBytes += METRIC_OVERHEAD_BYTES + id.length();
+        }
+        idPoints.put(timestamp, value);
+        estimatedBytes += DATA_POINT_BYTES;
+    }
+
+    boolean isEmpty() {
+        return counters.isEmpty() && gauges.isEmpty();
+    }
+
+    long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    void writeJson(OutputStream out) {
+        HawkularJson.writeBatch(out, counters, gauges);
+    }
+}
@@ -31,7 +31,7 @@ import java.util.stream.Stream;
 
 import com.codahale.metrics.Counting;
 import com.codahale.metrics.Metered;
-import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Snapshot;
 
 /**
  * @author Joel Takvorian
@@ -40,10 +40,14 @@ final class MetricsDecomposer {
 
     private static final List<MetricPart<Counting, Long>> COUNTINGS;
     private static final List<MetricPart<Metered, Object>> METERED;
-    private static final List<MetricPart<Sampling, Object>> SAMPLING;
+    private static final List<MetricPart<Snapshot, Object>> SAMPLING;
+    private static final List<MetricPart<GaugeAggregator.Aggregate, Object>> GAUGE_SAMPLING;
 
-    private final Map<String, Set<String>> namedMetricsComposition;
-    private final Collection<RegexContainer<Set<String>>> regexComposition;
+    private volatile Composition composition;
+    private final Map<String, Buckets> namedBuckets;
+    private final Collection<RegexContainer<Buckets>> regexBuckets;
+    private final Set<String> namedSampledGauges;
+    private final Collection<RegexContainer<Boolean>> regexSampledGauges;
 
     static {
         COUNTINGS = new ArrayList<>(1);
@@ -54,39 +58,78 @@ final class MetricsDecomposer {
         METERED.add(part(Metered::getFifteenMinuteRate, "15minrt", METRIC_TYPE_GAUGE));
         METERED.add(part(Metered::getMeanRate, "meanrt", METRIC_TYPE_GAUGE));
         SAMPLING = new ArrayList<>(10);
-        SAMPLING.add(part(s -> s.getSnapshot().getMin(), "min", METRIC_TYPE_GAUGE));
-        SAMPLING.add(part(s -> s.getSnapshot().getMax(), "max", METRIC_TYPE_GAUGE));
-        SAMPLING.add(part(s -> s.getSnapshot().getMean(), "mean", METRIC_TYPE_GAUGE));
-        SAMPLING.add(part(s -> s.getSnapshot().getMedian(), "median", METRIC_TYPE_GAUGE));
-        SAMPLING.add(part(s -> s.getSnapshot().getStdDev(), "stddev", METRIC_TYPE_GAUGE));
-        SAMPLING.add(part(s -> s.getSnapshot().get75thPercentile(), "75perc", METRIC_TYPE_GAUGE));
-        SAMPLING.add(part(s -> s.getSnapshot().get95thPercentile(), "95perc", METRIC_TYPE_GAUGE));
-        SAMPLING.add(part(s -> s.getSnapshot().get98thPercentile(), "98perc", METRIC_TYPE_GAUGE));
-        SAMPLING.add(part(s -> s.getSnapshot().get99thPercentile(), "99perc", METRIC_TYPE_GAUGE));
-        SAMPLING.add(part(s -> s.getSnapshot().get999thPercentile(), "999perc", METRIC_TYPE_GAUGE));
+        SAMPLING.add(part(Snapshot::getMin, "min", METRIC_TYPE_GAUGE));
+        SAMPLING.add(part(Snapshot::getMax, "max", METRIC_TYPE_GAUGE));
+        SAMPLING.add(part(Snapshot::getMean, "mean", METRIC_TYPE_GAUGE));
+        SAMPLING.add(part(Snapshot::getMedian, "median", METRIC_TYPE_GAUGE));
+        SAMPLING.add(part(Snapshot::getStdDev, "stddev", METRIC_TYPE_GAUGE));
+        SAMPLING.add(part(Snapshot::get75thPercentile, "75perc", METRIC_TYPE_GAUGE));
+        SAMPLING.add(part(Snapshot::get95thPercentile, "95perc", METRIC_TYPE_GAUGE));
+        SAMPLING.add(part(Snapshot::get98thPercentile, "98perc", METRIC_TYPE_GAUGE));
+        SAMPLING.add(part(Snapshot::get99thPercentile, "99perc", METRIC_TYPE_GAUGE));
+        SAMPLING.add(part(Snapshot::get999thPercentile, "999perc", METRIC_TYPE_GAUGE));
+        GAUGE_SAMPLING = new ArrayList<>(3);
+        GAUGE_SAMPLING.add(part(GaugeAggregator.Aggregate::getMin, "min", METRIC_TYPE_GAUGE));
+        GAUGE_SAMPLING.add(part(GaugeAggregator.Aggregate::getMax, "max", METRIC_TYPE_GAUGE));
+        GAUGE_SAMPLING.add(part(GaugeAggregator.Aggregate::getAvg, "avg", METRIC_TYPE_GAUGE));
     }
 
-    MetricsDecomposer(Map<String, Set<String>> namedMetricsComposition,
-                      Collection<RegexContainer<Set<String>>> regexComposition) {
-        this.namedMetricsComposition = namedMetricsComposition;
-        this.regexComposition = regexComposition;
+    MetricsDecomposer(Composition composition,
+                      Map<String, Buckets> namedBuckets,
+                      Collection<RegexContainer<Buckets>> regexBuckets,
+                      Set<String> namedSampledGauges,
+                      Collection<RegexContainer<Boolean>> regexSampledGauges) {
+        this.composition = composition;
+        this.namedBuckets = namedBuckets;
+        this.regexBuckets = regexBuckets;
+        this.namedSampledGauges = namedSampledGauges;
+        this.regexSampledGauges = regexSampledGauges;
     }
 
     Optional<Collection<String>> getAllowedParts(String metricName) {
-        if (namedMetricsComposition.containsKey(metricName)) {
-            return Optional.of(namedMetricsComposition.get(metricName));
-        } else {
-            for (RegexContainer<Set<String>> reg : regexComposition) {
-                Optional<Set<String>> match = reg.match(metricName);
-                if (match.isPresent()) {
-                    return Optional.of(match.get());
-                }
-            }
+        return composition.getAllowedParts(metricName);
+    }
+
+    Composition getComposition() {
+        return composition;
+    }
+
+    /**
+     * Atomically replace composition rules. Readers see either the previous or the new rules, never a mix of both
+     */
+    void setComposition(Composition composition) {
+        this.composition = composition;
+    }
 
+    Optional<Buckets> getBuckets(String metricName) {
+        if (namedBuckets.containsKey(metricName)) {
+            return Optional.of(namedBuckets.get(metricName));
+        }
+        for (RegexContainer<Buckets> reg : regexBuckets) {
+            Optional<Buckets> match = reg.match(metricName);
+            if (match.isPresent()) {
+                return match;
+            }
         }
         return Optional.empty();
     }
 
+    boolean isSampledGauge(String metricName) {
+        if (namedSampledGauges.contains(metricName)) {
+            return true;
+        }
+        for (RegexContainer<Boolean> reg : regexSampledGauges) {
+            if (reg.match(metricName).isPresent()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean hasSampledGauges() {
+        return !namedSampledGauges.isEmpty() || !regexSampledGauges.isEmpty();
+    }
+
     private static <T,U> MetricPart<T,U> part(Function<T,U> getter, String suffix, String type) {
         return new MetricPart<T, U>() {
             @Override public U getData(T input) {
@@ -104,16 +147,22 @@ final class MetricsDecomposer {
     }
 
     PartsStreamer streamParts(String metricName) {
-        Predicate<String> p = getAllowedParts(metricName)
+        return streamParts(metricName, composition);
+    }
+
+    PartsStreamer streamParts(String metricName, Composition composition) {
+        Predicate<String> p = composition.getAllowedParts(metricName)
                 .map(allowed -> (Predicate<String>)(allowed::contains))
                 .orElse(part -> true);
-        return new PartsStreamer(p);
+        return new PartsStreamer(p, getBuckets(metricName));
     }
 
     static class PartsStreamer {
         private final Predicate<String> metricPredicate;
-        private PartsStreamer(Predicate<String> metricPredicate) {
+        private final Optional<Buckets> buckets;
+        private PartsStreamer(Predicate<String> metricPredicate, Optional<Buckets> buckets) {
             this.metricPredicate = metricPredicate;
+            this.buckets = buckets;
         }
 
         Stream<MetricPart<Counting, Long>> countings() {
@@ -126,9 +175,51 @@ final class MetricsDecomposer {
                     .filter(metricPart -> metricPredicate.test(metricPart.getSuffix()));
         }
 
-        Stream<MetricPart<Sampling, Object>> samplings() {
+        Stream<MetricPart<Snapshot, Object>> samplings() {
             return SAMPLING.stream()
                     .filter(metricPart -> metricPredicate.test(metricPart.getSuffix()));
         }
+
+        Stream<MetricPart<GaugeAggregator.Aggregate, Object>> gaugeSamplings() {
+            return GAUGE_SAMPLING.stream()
+                    .filter(metricPart -> metricPredicate.test(metricPart.getSuffix()));
+        }
+
+        /**
+         * Bucket parts are opt-in: they are only streamed when buckets are configured for this metric, regardless
+         * of the metric composition
+         */
+        Stream<MetricPart<long[], Long>> buckets() {
+            return buckets.map(b -> b.parts().stream()).orElseGet(Stream::empty);
+        }
+    }
+
+    /**
+     * Immutable set of composition rules
+     */
+    static final class Composition {
+        private final Map<String, Set<String>> namedMetricsComposition;
+        private final Collection<RegexContainer<Set<String>>> regexComposition;
+
+        Composition(Map<String, Set<String>> namedMetricsComposition,
+                    Collection<RegexContainer<Set<String>>> regexComposition) {
+            this.namedMetricsComposition = namedMetricsComposition;
+            this.regexComposition = regexComposition;
+        }
+
+        Optional<Collection<String>> getAllowedParts(String metricName) {
+            if (namedMetricsComposition.containsKey(metricName)) {
+                return Optional.of(namedMetricsComposition.get(metricName));
+            } else {
+                for (RegexContainer<Set<String>> reg : regexComposition) {
+                    Optional<Set<String>> match = reg.match(metricName);
+                    if (match.isPresent()) {
+                        return Optional.of(match.get());
+                    }
+                }
+
+            }
+            return Optional.empty();
+        }
     }
 }
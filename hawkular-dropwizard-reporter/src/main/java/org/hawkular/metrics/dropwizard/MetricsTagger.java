@@ -16,18 +16,29 @@
  */
 package org.hawkular.metrics.dropwizard;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
-import org.hawkular.metrics.reporter.http.HawkularHttpClient;
+import org.hawkular.metrics.reporter.http.HawkularHttpResponse;
 import org.hawkular.metrics.reporter.http.HawkularJson;
+import org.hawkular.metrics.reporter.jfr.FlightRecording;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.MetricRegistryListener;
@@ -42,30 +53,38 @@ class MetricsTagger implements MetricRegistryListener {
     static final String METRIC_TYPE_GAUGE = "gauges";
 
     private final Optional<String> prefix;
-    private final Map<String, String> globalTags;
-    private final Map<String, Map<String, String>> perMetricTags;
-    private final Collection<RegexContainer<Map<String, String>>> regexTags;
-    private final boolean enableTagComposition;
-    private final HawkularHttpClient hawkularClient;
+    // Rules and composition are swapped together, so that a series is never tagged with a mix of old and new
+    private volatile State state;
+    // Held for writing by reload, so that metrics added meanwhile are tagged either before or after the reload
+    private final ReadWriteLock reloadLock = new ReentrantReadWriteLock();
+    private final TenantRouter tenantRouter;
+    private final MetricRegistry registry;
     private final MetricFilter metricFilter;
     private final MetricsDecomposer metricsDecomposer;
+    private final CardinalityLimiter cardinalityLimiter;
+    private final TagFingerprints tagFingerprints;
+    private final Function<String, Map<String, String>> sourceTags;
 
+    /**
+     * @param sourceTags global tags of the registry each metric comes from, when several registries are reported
+     */
     MetricsTagger(Optional<String> prefix,
-                  Map<String, String> globalTags,
-                  Map<String, Map<String, String>> perMetricTags,
-                  Collection<RegexContainer<Map<String, String>>> regexTags,
-                  boolean enableTagComposition,
+                  Rules rules,
+                  Function<String, Map<String, String>> sourceTags,
                   MetricsDecomposer metricsDecomposer,
-                  HawkularHttpClient hawkularClient,
+                  CardinalityLimiter cardinalityLimiter,
+                  TagFingerprints tagFingerprints,
+                  TenantRouter tenantRouter,
                   MetricRegistry registry,
                   MetricFilter metricFilter) {
         this.prefix = prefix;
-        this.globalTags = globalTags;
-        this.perMetricTags = perMetricTags;
-        this.regexTags = regexTags;
-        this.enableTagComposition = enableTagComposition;
+        this.state = new State(rules, metricsDecomposer.getComposition());
+        this.sourceTags = sourceTags;
         this.metricsDecomposer = metricsDecomposer;
-        this.hawkularClient = hawkularClient;
+        this.cardinalityLimiter = cardinalityLimiter;
+        this.tagFingerprints = tagFingerprints;
+        this.tenantRouter = tenantRouter;
+        this.registry = registry;
         this.metricFilter = metricFilter;
 
         // Initialize with existing metrics
@@ -78,100 +97,285 @@ class MetricsTagger implements MetricRegistryListener {
         registry.addListener(this);
     }
 
-    private void tagMetric(String baseName, MetricPart<?,?> metricPart, String tagKey) {
-        String nameWithSuffix = metricPart.getMetricNameWithSuffix(baseName);
-        String fullName = prefix.map(p -> p + nameWithSuffix).orElse(nameWithSuffix);
-        Map<String, String> tags = new LinkedHashMap<>(globalTags);
-        if (enableTagComposition) {
-            tags.put(tagKey, metricPart.getSuffix());
+    /**
+     * Swap tag and composition rules. Existing series are re-tagged only when their resolved tags changed, including
+     * series that appear with the new composition. As PUT merges tags, tags that the new rules no longer produce are
+     * deleted.
+     */
+    void reload(Rules newRules, MetricsDecomposer.Composition newComposition) {
+        reloadLock.writeLock().lock();
+        try {
+            State oldState = state;
+            State newState = new State(newRules, newComposition);
+            state = newState;
+            metricsDecomposer.setComposition(newComposition);
+            retag(oldState, newState);
+        } finally {
+            reloadLock.writeLock().unlock();
         }
-        // Don't use prefixed name for per-metric tagging
-        tags.putAll(getTagsForMetrics(baseName));
-        tags.putAll(getTagsForMetrics(nameWithSuffix));
-        if (!tags.isEmpty()) {
-            hawkularClient.putTags("/" + metricPart.getMetricType()
-                    + "/" + fullName + "/tags", HawkularJson.tagsToString(tags));
+    }
+
+    /**
+     * Stop tagging metrics added to the registry
+     */
+    void close() {
+        registry.removeListener(this);
+    }
+
+    private void retag(State oldState, State newState) {
+        // Series and sent requests, counted for the JFR event
+        int[] counts = new int[2];
+        BiConsumer<String, Metric> retag = (name, metric) -> {
+            if (!metricFilter.matches(name, metric) || !cardinalityLimiter.isAdmitted(name)) {
+                return;
+            }
+            Map<String, Map<String, String>> oldTags = resolveTags(name,
+                    series(name, metric, oldState.composition), oldState.rules);
+            Map<String, Map<String, String>> newTags = resolveTags(name,
+                    series(name, metric, newState.composition), newState.rules);
+            newTags.forEach((path, tags) -> {
+                counts[0]++;
+                if (!tags.equals(oldTags.get(path)) && putTags(name, path, tags)) {
+                    counts[1]++;
+                }
+            });
+            oldTags.forEach((path, tags) -> {
+                Set<String> removed = new LinkedHashSet<>(tags.keySet());
+                removed.removeAll(newTags.getOrDefault(path, Collections.emptyMap()).keySet());
+                if (!removed.isEmpty()) {
+                    deleteTags(name, path, removed, !newTags.containsKey(path));
+                }
+            });
+        };
+        FlightRecording.Tagging event = FlightRecording.startTagging(null);
+        registry.getGauges().forEach(retag);
+        registry.getCounters().forEach(retag);
+        registry.getHistograms().forEach(retag);
+        registry.getTimers().forEach(retag);
+        registry.getMeters().forEach(retag);
+        if (event != null) {
+            event.finish(counts[0], counts[1]);
         }
     }
 
-    private void tagMetric(String metricType, String baseName) {
-        String fullName = prefix.map(p -> p + baseName).orElse(baseName);
-        Map<String, String> tags = new LinkedHashMap<>(globalTags);
-        // Don't use prefixed name for per-metric tagging
-        tags.putAll(getTagsForMetrics(baseName));
-        if (!tags.isEmpty()) {
-            hawkularClient.putTags("/" + metricType
-                    + "/" + fullName + "/tags", HawkularJson.tagsToString(tags));
+    /**
+     * List the series a metric is reported as, following the given composition
+     */
+    private List<Series> series(String name, Metric metric, MetricsDecomposer.Composition composition) {
+        List<Series> series = new ArrayList<>();
+        MetricsDecomposer.PartsStreamer streamer = metricsDecomposer.streamParts(name, composition);
+        if (metric instanceof Gauge) {
+            if (metricsDecomposer.isSampledGauge(name)) {
+                streamer.gaugeSamplings().forEach(part -> series.add(new Series(name, part, "gauge")));
+            } else {
+                series.add(new Series(METRIC_TYPE_GAUGE, name));
+            }
+        } else if (metric instanceof Counter) {
+            series.add(new Series(METRIC_TYPE_COUNTER, name));
+        } else if (metric instanceof Histogram) {
+            streamer.countings().forEach(part -> series.add(new Series(name, part, "histogram")));
+            streamer.samplings().forEach(part -> series.add(new Series(name, part, "histogram")));
+            streamer.buckets().forEach(part -> series.add(new Series(name, part, "histogram")));
+        } else if (metric instanceof Meter) {
+            streamer.countings().forEach(part -> series.add(new Series(name, part, "meter")));
+            streamer.metered().forEach(part -> series.add(new Series(name, part, "meter")));
+        } else if (metric instanceof Timer) {
+            streamer.countings().forEach(part -> series.add(new Series(name, part, "timer")));
+            streamer.metered().forEach(part -> series.add(new Series(name, part, "timer")));
+            streamer.samplings().forEach(part -> series.add(new Series(name, part, "timer")));
+            streamer.buckets().forEach(part -> series.add(new Series(name, part, "timer")));
         }
+        return series;
     }
 
-    Map<String, String> getTagsForMetrics(String name) {
-        Map<String, String> tags = new LinkedHashMap<>();
-        regexTags.forEach(reg -> reg.match(name).ifPresent(tags::putAll));
-        if (perMetricTags.containsKey(name)) {
-            tags.putAll(perMetricTags.get(name));
+    /**
+     * Resolve tags of each series, as resource path -&gt; tags. Series without any tag are omitted
+     */
+    private Map<String, Map<String, String>> resolveTags(String baseName, List<Series> series, Rules rules) {
+        Map<String, Map<String, String>> tagsPerPath = new LinkedHashMap<>();
+        for (Series s : series) {
+            Map<String, String> tags = new LinkedHashMap<>(rules.globalTags);
+            tags.putAll(sourceTags.apply(baseName));
+            if (s.suffix != null && rules.enableTagComposition) {
+                tags.put(s.tagKey, s.suffix);
+            }
+            // Don't use prefixed name for per-metric tagging
+            tags.putAll(rules.getTagsForMetrics(baseName));
+            if (s.suffix != null) {
+                tags.putAll(rules.getTagsForMetrics(s.nameWithSuffix));
+            }
+            if (!tags.isEmpty()) {
+                String fullName = prefix.map(p -> p + s.nameWithSuffix).orElse(s.nameWithSuffix);
+                tagsPerPath.put("/" + s.metricType + "/" + fullName + "/tags", tags);
+            }
         }
-        return tags;
+        return tagsPerPath;
     }
 
-    @Override public void onGaugeAdded(String name, Gauge<?> gauge) {
-        if (metricFilter.matches(name, gauge)) {
-            tagMetric(METRIC_TYPE_GAUGE, name);
+    /**
+     * @return true if a request was sent, false if these tags were already sent for the series
+     */
+    private boolean putTags(String baseName, String path, Map<String, String> tags) {
+        String json = HawkularJson.tagsToString(tags);
+        String seriesKey = tenantRouter.getTenant(baseName) + path;
+        if (tagFingerprints.isSent(seriesKey, json)) {
+            return false;
+        }
+        HawkularHttpResponse response = tenantRouter.getClient(baseName).putTags(path, json);
+        // Unsent tags are not recorded, to be sent again next time. Failover may still send them in between
+        if (response == null || (response.getResponseCode() >= 200 && response.getResponseCode() < 300)) {
+            tagFingerprints.markSent(seriesKey, json);
+        }
+        return true;
+    }
+
+    /**
+     * @param noTagsLeft true if the series has no tag left, so that the tags it had are forgotten
+     */
+    private void deleteTags(String baseName, String path, Set<String> tagNames, boolean noTagsLeft) {
+        tenantRouter.getClient(baseName).deleteTags(path, tagNames);
+        if (noTagsLeft) {
+            // The same tags may come back with later rules: they must be sent again
+            tagFingerprints.forget(tenantRouter.getTenant(baseName) + path);
         }
     }
 
+    private void onMetricAdded(String name, Metric metric) {
+        if (!metricFilter.matches(name, metric)) {
+            return;
+        }
+        reloadLock.readLock().lock();
+        try {
+            State current = state;
+            FlightRecording.Tagging event = FlightRecording.startTagging(name);
+            List<Series> series = series(name, metric, current.composition);
+            int tagged = 0;
+            int sent = 0;
+            if (cardinalityLimiter.admit(name, series.size())) {
+                for (Map.Entry<String, Map<String, String>> e : resolveTags(name, series, current.rules).entrySet()) {
+                    tagged++;
+                    if (putTags(name, e.getKey(), e.getValue())) {
+                        sent++;
+                    }
+                }
+            }
+            if (event != null) {
+                event.finish(tagged, sent);
+            }
+        } finally {
+            reloadLock.readLock().unlock();
+        }
+    }
+
+    Map<String, String> getTagsForMetrics(String name) {
+        return state.rules.getTagsForMetrics(name);
+    }
+
+    @Override public void onGaugeAdded(String name, Gauge<?> gauge) {
+        onMetricAdded(name, gauge);
+    }
+
     @Override public void onGaugeRemoved(String name) {
+        cardinalityLimiter.release(name);
     }
 
     @Override public void onCounterAdded(String name, Counter counter) {
-        if (metricFilter.matches(name, counter)) {
-            tagMetric(METRIC_TYPE_COUNTER, name);
-        }
+        onMetricAdded(name, counter);
     }
 
     @Override public void onCounterRemoved(String name) {
+        cardinalityLimiter.release(name);
     }
 
     @Override public void onHistogramAdded(String name, Histogram histogram) {
-        if (metricFilter.matches(name, histogram)) {
-            MetricsDecomposer.PartsStreamer streamer = metricsDecomposer.streamParts(name);
-            streamer.countings().forEach(metricPart -> tagMetric(name, metricPart, "histogram"));
-            streamer.samplings().forEach(metricPart -> tagMetric(name, metricPart, "histogram"));
-        }
+        onMetricAdded(name, histogram);
     }
 
     @Override public void onHistogramRemoved(String name) {
+        cardinalityLimiter.release(name);
     }
 
     @Override public void onMeterAdded(String name, Meter meter) {
-        if (metricFilter.matches(name, meter)) {
-            MetricsDecomposer.PartsStreamer streamer = metricsDecomposer.streamParts(name);
-            streamer.countings().forEach(metricPart -> tagMetric(name, metricPart, "meter"));
-            streamer.metered().forEach(metricPart -> tagMetric(name, metricPart, "meter"));
-        }
+        onMetricAdded(name, meter);
     }
 
     @Override public void onMeterRemoved(String name) {
+        cardinalityLimiter.release(name);
     }
 
     @Override public void onTimerAdded(String name, Timer timer) {
-        if (metricFilter.matches(name, timer)) {
-            MetricsDecomposer.PartsStreamer streamer = metricsDecomposer.streamParts(name);
-            streamer.countings().forEach(metricPart -> tagMetric(name, metricPart, "timer"));
-            streamer.metered().forEach(metricPart -> tagMetric(name, metricPart, "timer"));
-            streamer.samplings().forEach(metricPart -> tagMetric(name, metricPart, "timer"));
-        }
+        onMetricAdded(name, timer);
     }
 
     @Override public void onTimerRemoved(String name) {
+        cardinalityLimiter.release(name);
     }
 
     Map<String, String> getGlobalTags() {
-        return globalTags;
+        return state.rules.globalTags;
     }
 
     boolean isEnableTagComposition() {
-        return enableTagComposition;
+        return state.rules.enableTagComposition;
+    }
+
+    private static final class State {
+        private final Rules rules;
+        private final MetricsDecomposer.Composition composition;
+
+        private State(Rules rules, MetricsDecomposer.Composition composition) {
+            this.rules = rules;
+            this.composition = composition;
+        }
     }
 
+    /**
+     * Immutable set of tagging rules
+     */
+    static final class Rules {
+        private final Map<String, String> globalTags;
+        private final Map<String, Map<String, String>> perMetricTags;
+        private final Collection<RegexContainer<Map<String, String>>> regexTags;
+        private final boolean enableTagComposition;
+
+        Rules(Map<String, String> globalTags,
+              Map<String, Map<String, String>> perMetricTags,
+              Collection<RegexContainer<Map<String, String>>> regexTags,
+              boolean enableTagComposition) {
+            this.globalTags = globalTags;
+            this.perMetricTags = perMetricTags;
+            this.regexTags = regexTags;
+            this.enableTagComposition = enableTagComposition;
+        }
+
+        Map<String, String> getTagsForMetrics(String name) {
+            Map<String, String> tags = new LinkedHashMap<>();
+            regexTags.forEach(reg -> reg.match(name).ifPresent(tags::putAll));
+            if (perMetricTags.containsKey(name)) {
+                tags.putAll(perMetricTags.get(name));
+            }
+            return tags;
+        }
+    }
+
+    private static class Series {
+        private final String metricType;
+        private final String nameWithSuffix;
+        private final String suffix;
+        private final String tagKey;
+
+        private Series(String metricType, String name) {
+            this.metricType = metricType;
+            this.nameWithSuffix = name;
+            this.suffix = null;
+            this.tagKey = null;
+        }
+
+        private Series(String baseName, MetricPart<?, ?> part, String tagKey) {
+            this.metricType = part.getMetricType();
+            this.nameWithSuffix = part.getMetricNameWithSuffix(baseName);
+            this.suffix = part.getSuffix();
+            this.tagKey = tagKey;
+        }
+    }
 }
@@ -44,6 +44,10 @@ class RegexContainer<T> {
         return Optional.empty();
     }
 
+    T getContent() {
+        return content;
+    }
+
     Optional<T> match(String metricName) {
         if (regex.matcher(metricName).find()) {
             return Optional.of(content);
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+
+/**
+ * Mirrors several registries into a single one, so that they are collected in a single pass and sent in a single
+ * payload. Each source registry may have a name prefix, and global tags that apply to its metrics only.<br/>
+ * Metrics are not copied: the union registry holds the same instances, under their prefixed name.
+ */
+class RegistryUnion {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RegistryUnion.class);
+
+    private final MetricRegistry union = new MetricRegistry();
+    private final Map<String, Source> owners = new ConcurrentHashMap<>();
+    private final List<Map.Entry<MetricRegistry, Source>> sources = new CopyOnWriteArrayList<>();
+
+    /**
+     * Mirror a registry, including the metrics it already has
+     */
+    void add(MetricRegistry registry, String prefix, Map<String, String> globalTags) {
+        Source source = new Source(prefix, globalTags);
+        sources.add(new AbstractMap.SimpleImmutableEntry<>(registry, source));
+        registry.addListener(source);
+    }
+
+    /**
+     * Stop mirroring the source registries. Metrics already mirrored stay in the union registry
+     */
+    void close() {
+        sources.forEach(e -> e.getKey().removeListener(e.getValue()));
+        sources.clear();
+    }
+
+    MetricRegistry getRegistry() {
+        return union;
+    }
+
+    /**
+     * Global tags of the registry a metric comes from
+     * @param name metric name in the union registry
+     */
+    Map<String, String> getSourceTags(String name) {
+        Source source = owners.get(name);
+        return source == null ? Collections.emptyMap() : source.globalTags;
+    }
+
+    private class Source implements MetricRegistryListener {
+        private final String prefix;
+        private final Map<String, String> globalTags;
+
+        private Source(String prefix, Map<String, String> globalTags) {
+            this.prefix = prefix;
+            this.globalTags = globalTags;
+        }
+
+        private void onAdded(String name, Metric metric) {
+            String fullName = prefix + name;
+            // Owner is set first, as union listeners resolve tags when the metric is registered
+            if (owners.putIfAbsent(fullName, this) != null) {
+                LOG.warn("Metric {} is already reported from another registry, it is ignored", fullName);
+                return;
+            }
+            try {
+                union.register(fullName, metric);
+            } catch (IllegalArgumentException e) {
+                owners.remove(fullName, this);
+                LOG.warn("Metric {} could not be reported: {}", fullName, e.getMessage());
+            }
+        }
+
+        private void onRemoved(String name) {
+            String fullName = prefix + name;
+            if (owners.get(fullName) == this) {
+                union.remove(fullName);
+                owners.remove(fullName, this);
+            }
+        }
+
+        @Override public void onGaugeAdded(String name, Gauge<?> gauge) {
+            onAdded(name, gauge);
+        }
+
+        @Override public void onGaugeRemoved(String name) {
+            onRemoved(name);
+        }
+
+        @Override public void onCounterAdded(String name, Counter counter) {
+            onAdded(name, counter);
+        }
+
+        @Override public void onCounterRemoved(String name) {
+            onRemoved(name);
+        }
+
+        @Override public void onHistogramAdded(String name, Histogram histogram) {
+            onAdded(name, histogram);
+        }
+
+        @Override public void onHistogramRemoved(String name) {
+            onRemoved(name);
+        }
+
+        @Override public void onMeterAdded(String name, Meter meter) {
+            onAdded(name, meter);
+        }
+
+        @Override public void onMeterRemoved(String name) {
+            onRemoved(name);
+        }
+
+        @Override public void onTimerAdded(String name, Timer timer) {
+            onAdded(name, timer);
+        }
+
+        @Override public void onTimerRemoved(String name) {
+            onRemoved(name);
+        }
+    }
+}
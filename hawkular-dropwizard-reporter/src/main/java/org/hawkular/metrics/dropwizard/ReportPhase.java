@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Offset of the report schedule within the report interval, used to spread the load of many instances over the
+ * interval instead of having all of them post at the same time
+ */
+final class ReportPhase {
+
+    private final String instanceKey;
+
+    private ReportPhase(String instanceKey) {
+        this.instanceKey = instanceKey;
+    }
+
+    /**
+     * Deterministic phase: a given instance key always gets the same offset, e.g. across restarts
+     */
+    static ReportPhase hashed(String instanceKey) {
+        return new ReportPhase(instanceKey);
+    }
+
+    /**
+     * Random phase, picked when the reporter starts
+     */
+    static ReportPhase random() {
+        return new ReportPhase(null);
+    }
+
+    long offset(long periodMs) {
+        if (instanceKey == null) {
+            return ThreadLocalRandom.current().nextLong(periodMs);
+        }
+        return Math.floorMod(mix(instanceKey.hashCode()), periodMs);
+    }
+
+    /**
+     * Spread hash bits (SplitMix64 finalizer), so that similar keys such as "pod-1" and "pod-2" get distant offsets
+     */
+    private static long mix(long value) {
+        long z = value + 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
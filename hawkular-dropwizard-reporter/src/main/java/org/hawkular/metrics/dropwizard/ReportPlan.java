@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * What a report collects for a metric: its tenant, its priority, and the ids of the series it is decomposed into,
+ * already prefixed. It is resolved from routing, priority and composition rules once per metric, rather than at each
+ * report.
+ */
+final class ReportPlan {
+
+    private final String tenant;
+    private final String id;
+    private final MetricPriority priority;
+    private final int series;
+    private final List<Part<Counting, Long>> countings;
+    private final List<Part<Metered, Object>> metered;
+    private final List<Part<Snapshot, Object>> samplings;
+    private final List<Part<GaugeAggregator.Aggregate, Object>> gaugeSamplings;
+    private final Buckets buckets;
+    private final List<Part<long[], Long>> bucketParts;
+
+    ReportPlan(String tenant,
+               String id,
+               MetricPriority priority,
+               int series,
+               List<Part<Counting, Long>> countings,
+               List<Part<Metered, Object>> metered,
+               List<Part<Snapshot, Object>> samplings,
+               List<Part<GaugeAggregator.Aggregate, Object>> gaugeSamplings,
+               Buckets buckets,
+               List<Part<long[], Long>> bucketParts) {
+        this.tenant = tenant;
+        this.id = id;
+        this.priority = priority;
+        this.series = series;
+        this.countings = countings;
+        this.metered = metered;
+        this.samplings = samplings;
+        this.gaugeSamplings = gaugeSamplings;
+        this.buckets = buckets;
+        this.bucketParts = bucketParts;
+    }
+
+    /**
+     * Resolve the ids of metric parts
+     */
+    static <T,U> List<Part<T,U>> parts(Stream<MetricPart<T,U>> metricParts, String prefix, String metricName) {
+        List<Part<T,U>> parts = new ArrayList<>();
+        metricParts.forEach(metricPart ->
+                parts.add(new Part<>(metricPart, prefix + metricPart.getMetricNameWithSuffix(metricName))));
+        return parts.isEmpty() ? Collections.emptyList() : parts;
+    }
+
+    String getTenant() {
+        return tenant;
+    }
+
+    /**
+     * Prefixed id of the metric, when it is not decomposed
+     */
+    String getId() {
+        return id;
+    }
+
+    MetricPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Number of series reported for the metric
+     */
+    int getSeries() {
+        return series;
+    }
+
+    List<Part<Counting, Long>> getCountings() {
+        return countings;
+    }
+
+    List<Part<Metered, Object>> getMetered() {
+        return metered;
+    }
+
+    List<Part<Snapshot, Object>> getSamplings() {
+        return samplings;
+    }
+
+    List<Part<GaugeAggregator.Aggregate, Object>> getGaugeSamplings() {
+        return gaugeSamplings;
+    }
+
+    /**
+     * Buckets of the metric, or null if it has none
+     */
+    Buckets getBuckets() {
+        return buckets;
+    }
+
+    List<Part<long[], Long>> getBucketParts() {
+        return bucketParts;
+    }
+
+    /**
+     * A metric part, with the prefixed id of its series
+     */
+    static final class Part<T,U> {
+        private final MetricPart<T,U> metricPart;
+        private final String id;
+
+        private Part(MetricPart<T,U> metricPart, String id) {
+            this.metricPart = metricPart;
+            this.id = id;
+        }
+
+        U getData(T input) {
+            return metricPart.getData(input);
+        }
+
+        String getId() {
+            return id;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hawkular.metrics.reporter.http.ByteBufferPool;
+import org.hawkular.metrics.reporter.http.HawkularHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue of payloads, sent by a dedicated thread so that network latency doesn't delay collection
+ */
+class SendQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SendQueue.class);
+    private static final long CLOSE_TIMEOUT_MS = 5000L;
+
+    private final BlockingQueue<Payload> queue;
+    private final SendQueueOverflowPolicy overflowPolicy;
+    private final ByteBufferPool bufferPool;
+    private final AtomicLong dropped = new AtomicLong();
+    private Thread sender;
+    private volatile boolean closed = false;
+
+    /**
+     * @param bufferPool pool where payload buffers are released once sent or dropped
+     */
+    SendQueue(int capacity, SendQueueOverflowPolicy overflowPolicy, ByteBufferPool bufferPool) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Queue a payload. Ownership of the buffer is transferred to the queue
+     */
+    void submit(HawkularHttpClient client, ByteBuffer jsonBody) {
+        if (closed) {
+            send(new Payload(client, jsonBody));
+            return;
+        }
+        startSender();
+        Payload payload = new Payload(client, jsonBody);
+        while (!queue.offer(payload)) {
+            switch (overflowPolicy) {
+                case DROP_OLDEST:
+                    Payload oldest = queue.poll();
+                    if (oldest != null) {
+                        bufferPool.release(oldest.jsonBody);
+                        onDropped();
+                    }
+                    break;
+                case FAILOVER:
+                    client.deferMetrics(jsonBody);
+                    bufferPool.release(jsonBody);
+                    return;
+                case DROP_NEWEST:
+                default:
+                    bufferPool.release(jsonBody);
+                    onDropped();
+                    return;
+            }
+        }
+    }
+
+    private void send(Payload payload) {
+        try {
+            payload.client.postMetrics(payload.jsonBody);
+        } finally {
+            bufferPool.release(payload.jsonBody);
+        }
+    }
+
+    private void onDropped() {
+        if (dropped.getAndIncrement() == 0) {
+            LOG.warn("Send queue is full, some metrics payloads are dropped. Is Hawkular server slow or unreachable?");
+        }
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    private synchronized void startSender() {
+        if (sender == null && !closed) {
+            sender = new Thread(this::run, "hawkular-sender");
+            sender.setDaemon(true);
+            sender.start();
+        }
+    }
+
+    private void run() {
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Payload payload = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (payload != null) {
+                    // Failover is managed from the sender thread as well, to keep network I/O out of collection
+                    payload.client.manageFailover();
+                    send(payload);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                LOG.error("RuntimeException thrown while sending metrics. Exception was suppressed.", e);
+            }
+        }
+    }
+
+    /**
+     * Stop accepting new payloads and wait for the queued ones to be sent, for a limited time
+     */
+    void close() {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            t = sender;
+        }
+        if (t != null) {
+            try {
+                t.join(CLOSE_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (t.isAlive()) {
+                LOG.warn("Send queue could not be emptied before closing, {} payloads are lost", queue.size());
+                t.interrupt();
+            }
+        }
+    }
+
+    private static class Payload {
+        private final HawkularHttpClient client;
+        private final ByteBuffer jsonBody;
+
+        private Payload(HawkularHttpClient client, ByteBuffer jsonBody) {
+            this.client = client;
+            this.jsonBody = jsonBody;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+/**
+ * What to do with a payload when the send queue is full
+ */
+public enum SendQueueOverflowPolicy {
+    /**
+     * Discard the oldest queued payload to make room for the new one
+     */
+    DROP_OLDEST,
+    /**
+     * Discard the new payload
+     */
+    DROP_NEWEST,
+    /**
+     * Put the new payload in the failover cache of the HTTP client, to be sent with other failover data
+     */
+    FAILOVER
+}
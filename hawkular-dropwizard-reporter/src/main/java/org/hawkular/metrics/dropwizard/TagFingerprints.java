@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded record of the tags last sent for each series, so that identical tag PUTs are not sent again when metrics
+ * are removed and re-added. Least recently used entries are evicted first.<br/>
+ * Tags are stored as a 64 bits fingerprint of their Json body, rather than the body itself, to keep memory low.
+ */
+class TagFingerprints {
+
+    private final Map<String, Long> fingerprints;
+
+    TagFingerprints(int maxEntries) {
+        this.fingerprints = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return true if these tags were already sent for this series
+     */
+    synchronized boolean isSent(String seriesKey, String jsonTags) {
+        Long fingerprint = fingerprints.get(seriesKey);
+        return fingerprint != null && fingerprint == fingerprint(jsonTags);
+    }
+
+    synchronized void markSent(String seriesKey, String jsonTags) {
+        fingerprints.put(seriesKey, fingerprint(jsonTags));
+    }
+
+    synchronized void forget(String seriesKey) {
+        fingerprints.remove(seriesKey);
+    }
+
+    synchronized int size() {
+        return fingerprints.size();
+    }
+
+    /**
+     * 64 bits FNV-1a hash
+     */
+    private static long fingerprint(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.hawkular.metrics.reporter.http.HawkularHttpClient;
+
+/**
+ * Resolves the Hawkular tenant of a metric, and the {@link HawkularHttpClient} bound to that tenant.<br/>
+ * Routes are evaluated on the base metric name (without prefix): named routes first, then regex routes in the
+ * order they were declared. Unrouted metrics go to the default tenant.
+ */
+final class TenantRouter {
+
+    private final String defaultTenant;
+    private final Map<String, String> namedRoutes;
+    private final Collection<RegexContainer<String>> regexRoutes;
+    private final Map<String, HawkularHttpClient> clientsPerTenant;
+
+    TenantRouter(String defaultTenant,
+                 Map<String, String> namedRoutes,
+                 Collection<RegexContainer<String>> regexRoutes,
+                 Map<String, HawkularHttpClient> clientsPerTenant) {
+        this.defaultTenant = defaultTenant;
+        this.namedRoutes = namedRoutes;
+        this.regexRoutes = regexRoutes;
+        this.clientsPerTenant = clientsPerTenant;
+    }
+
+    String getTenant(String metricName) {
+        if (namedRoutes.isEmpty() && regexRoutes.isEmpty()) {
+            return defaultTenant;
+        }
+        String tenant = namedRoutes.get(metricName);
+        if (tenant != null) {
+            return tenant;
+        }
+        for (RegexContainer<String> reg : regexRoutes) {
+            Optional<String> match = reg.match(metricName);
+            if (match.isPresent()) {
+                return match.get();
+            }
+        }
+        return defaultTenant;
+    }
+
+    HawkularHttpClient getClientForTenant(String tenant) {
+        return clientsPerTenant.get(tenant);
+    }
+
+    HawkularHttpClient getClient(String metricName) {
+        return clientsPerTenant.get(getTenant(metricName));
+    }
+
+    HawkularHttpClient getDefaultClient() {
+        return clientsPerTenant.get(defaultTenant);
+    }
+
+    String getDefaultTenant() {
+        return defaultTenant;
+    }
+
+    /**
+     * Distinct clients, as several tenants may share the same client instance when a custom client is provided
+     */
+    Set<HawkularHttpClient> getClients() {
+        Set<HawkularHttpClient> clients = Collections.newSetFromMap(new IdentityHashMap<>());
+        clients.addAll(clientsPerTenant.values());
+        return clients;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+import org.hawkular.metrics.reporter.http.HawkularHttpClient;
+import org.hawkular.metrics.reporter.http.HawkularHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Guards allocations of the reporting path against regressions: bytes allocated per series must stay below the
+ * baseline checked in allocation-baseline.properties, with some tolerance for JVM variations.<br/>
+ * When an improvement lowers allocations, the baseline should be lowered accordingly.
+ */
+public class AllocationBudgetTest {
+
+    private static final int COUNTERS = 200;
+    private static final int GAUGES = 200;
+    private static final int METERS = 20;
+    private static final int HISTOGRAMS = 20;
+    private static final int TIMERS = 20;
+    // With default composition: meter = 5 series, histogram = 11, timer = 15
+    private static final int SERIES = COUNTERS + GAUGES + METERS * 5 + HISTOGRAMS * 11 + TIMERS * 15;
+    private static final int WARMUP_CYCLES = 300;
+    private static final int MEASURED_CYCLES = 100;
+
+    private com.sun.management.ThreadMXBean threadMXBean;
+    private Properties baseline;
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        baseline = new Properties();
+        try (InputStream is = getClass().getResourceAsStream("/allocation-baseline.properties")) {
+            baseline.load(is);
+        }
+    }
+
+    @Test
+    public void reportCycleShouldStayInAllocationBudget() {
+        MetricRegistry registry = new MetricRegistry();
+        populate(registry, "");
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> new NoopHttpClient())
+                .build();
+
+        for (int i = 0; i < WARMUP_CYCLES; i++) {
+            reporter.report();
+        }
+        long before = allocatedBytes();
+        for (int i = 0; i < MEASURED_CYCLES; i++) {
+            reporter.report();
+        }
+        long perSeries = (allocatedBytes() - before) / MEASURED_CYCLES / SERIES;
+
+        assertThat(perSeries)
+                .as("Bytes allocated per series and report cycle")
+                .isLessThanOrEqualTo(budget("report.bytesPerSeries"));
+    }
+
+    @Test
+    public void registrationShouldStayInAllocationBudget() {
+        MetricRegistry registry = new MetricRegistry();
+        HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> new NoopHttpClient())
+                .addGlobalTag("env", "test")
+                .build();
+
+        for (int i = 0; i < WARMUP_CYCLES / 10; i++) {
+            populate(registry, "warmup." + i + ".");
+        }
+        int rounds = MEASURED_CYCLES / 10;
+        long before = allocatedBytes();
+        for (int i = 0; i < rounds; i++) {
+            populate(registry, "measured." + i + ".");
+        }
+        long perSeries = (allocatedBytes() - before) / rounds / SERIES;
+
+        assertThat(perSeries)
+                .as("Bytes allocated per series at registration, including the registry itself")
+                .isLessThanOrEqualTo(budget("registration.bytesPerSeries"));
+    }
+
+    private long budget(String key) {
+        double tolerance = Double.parseDouble(baseline.getProperty("tolerance"));
+        return (long) (Long.parseLong(baseline.getProperty(key)) * tolerance);
+    }
+
+    private long allocatedBytes() {
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void populate(MetricRegistry registry, String prefix) {
+        for (int i = 0; i < COUNTERS; i++) {
+            registry.counter(prefix + "counter." + i).inc(i);
+        }
+        for (int i = 0; i < GAUGES; i++) {
+            final double value = i;
+            registry.register(prefix + "gauge." + i, (Gauge<Double>) () -> value);
+        }
+        for (int i = 0; i < METERS; i++) {
+            registry.meter(prefix + "meter." + i).mark(i);
+        }
+        for (int i = 0; i < HISTOGRAMS; i++) {
+            registry.histogram(prefix + "histogram." + i).update(i);
+        }
+        for (int i = 0; i < TIMERS; i++) {
+            registry.timer(prefix + "timer." + i).update(i, java.util.concurrent.TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static class NoopHttpClient implements HawkularHttpClient {
+        @Override public void addHeaders(Map<String, String> headers) {
+        }
+
+        @Override public HawkularHttpResponse postMetrics(String jsonBody) {
+            return null;
+        }
+
+        @Override public HawkularHttpResponse postMetrics(ByteBuffer jsonBody) {
+            return null;
+        }
+
+        @Override public HawkularHttpResponse putTags(String resourcePath, String jsonBody) {
+            return null;
+        }
+
+        @Override
+        public void setFailoverOptions(Optional<Long> failoverCacheDuration, Optional<Integer> failoverCacheMaxSize) {
+        }
+
+        @Override public void manageFailover() {
+        }
+    }
+}
@@ -202,12 +202,16 @@ public class HawkularReporterITest {
 
         Meter meter = registry.meter(metricName);
         meter.mark(1000);
-        Thread.sleep(100);
-        meter.mark(1000);
-        reporter.report();
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(100);
+            meter.mark(1000);
+            reporter.report();
+        }
 
-        // 6 requests (6 = 5 tags + 1 metric), but majored by 3
-        assertThat(((JdkHawkularHttpClient) reporter.getHawkularClient()).getFailoverCacheSize()).isEqualTo(3);
+        // 5 metrics requests, but majored by 3. Tag requests are kept apart, one per series (5 series of the meter)
+        JdkHawkularHttpClient client = (JdkHawkularHttpClient) reporter.getHawkularClient();
+        assertThat(client.getFailoverCacheSize()).isEqualTo(3);
+        assertThat(client.getFailoverTagRequestsSize()).isEqualTo(5);
     }
 
     @Test
@@ -223,8 +227,10 @@ public class HawkularReporterITest {
         meter.mark(1000);
         reporter.report();
 
-        // 6 = 5 tags + 1 metric
-        assertThat(((JdkHawkularHttpClient) reporter.getHawkularClient()).getFailoverCacheSize()).isEqualTo(6);
+        // 1 metrics request, and 5 tag requests (one per series of the meter)
+        JdkHawkularHttpClient client = (JdkHawkularHttpClient) reporter.getHawkularClient();
+        assertThat(client.getFailoverCacheSize()).isEqualTo(1);
+        assertThat(client.getFailoverTagRequestsSize()).isEqualTo(5);
     }
 
     private static String randomName() {
@@ -20,23 +20,42 @@ import static java.util.stream.Collectors.toMap;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.Assertions.tuple;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Scanner;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 import java.util.stream.StreamSupport;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.assertj.core.api.iterable.Extractor;
 import org.assertj.core.util.Lists;
+import org.hawkular.metrics.reporter.http.FailoverCache;
 import org.hawkular.metrics.reporter.http.HawkularHttpClient;
 import org.hawkular.metrics.reporter.http.HawkularHttpResponse;
+import org.hawkular.metrics.reporter.http.HawkularJson;
+import org.hawkular.metrics.reporter.http.JdkHawkularHttpClient;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Test;
@@ -46,6 +65,7 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpServer;
 
 /**
  * @author Joel Takvorian
@@ -388,11 +408,972 @@ public class HawkularReporterTest {
         assertThat(values).containsOnly(entry("gauge.bigi", 2d));
     }
 
+    @Test
+    public void shouldRouteMetricsToTenants() {
+        Map<String, HttpClientMock> clients = new HashMap<>();
+        HawkularReporter reporter = HawkularReporter.builder(registry, "platform")
+                .useHttpClient(uri -> new HttpClientMock())
+                .addTenantRoute("/team\\.a\\..*/", "team-a")
+                .addTenantRoute("shared.counter", "team-b")
+                .build();
+        for (String tenant : Lists.newArrayList("platform", "team-a", "team-b")) {
+            HttpClientMock tenantClient = (HttpClientMock) reporter.getHawkularClient(tenant);
+            assertThat(tenantClient.getHeaders()).contains(entry("Hawkular-Tenant", tenant));
+            clients.put(tenant, tenantClient);
+        }
+
+        registry.counter("team.a.counter").inc();
+        registry.counter("shared.counter").inc();
+        registry.counter("platform.counter").inc();
+        reporter.report();
+
+        assertThat(reporter.getTenant("team.a.counter")).isEqualTo("team-a");
+        assertThat(clients.get("team-a").getMetricsRestCalls()).hasSize(1);
+        JSONArray json = new JSONObject(clients.get("team-a").getMetricsRestCalls().get(0)).getJSONArray("counters");
+        assertThat(json).extracting(idFromRoot).containsExactly("team.a.counter");
+        json = new JSONObject(clients.get("team-b").getMetricsRestCalls().get(0)).getJSONArray("counters");
+        assertThat(json).extracting(idFromRoot).containsExactly("shared.counter");
+        json = new JSONObject(clients.get("platform").getMetricsRestCalls().get(0)).getJSONArray("counters");
+        assertThat(json).extracting(idFromRoot).containsExactly("platform.counter");
+    }
+
+    @Test
+    public void shouldReportBucketCounters() {
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> client)
+                .setMetricComposition("my.histogram", Lists.newArrayList("count"))
+                .setBucketsComposition("my.histogram", Buckets.of(2, 5, 10))
+                .build();
+
+        final Histogram histogram = registry.histogram("my.histogram");
+        histogram.update(3);
+        histogram.update(8);
+        histogram.update(7);
+        histogram.update(1);
+        histogram.update(8);
+        histogram.update(4);
+        reporter.report();
+
+        assertThat(client.getMetricsRestCalls()).hasSize(1);
+        JSONObject metrics = new JSONObject(client.getMetricsRestCalls().get(0));
+        assertThat(metrics.keySet()).containsOnly("counters");
+        JSONArray countersJson = metrics.getJSONArray("counters");
+        Map<String, Integer> values = StreamSupport.stream(countersJson.spliterator(), false)
+                .collect(toMap(idFromRoot::extract, valueFromRoot::extract));
+        assertThat(values).containsOnly(
+                entry("my.histogram.count", 6),
+                entry("my.histogram.le.2", 1),
+                entry("my.histogram.le.5", 3),
+                entry("my.histogram.le.10", 6));
+
+        assertThat(client.getTagsRestCalls()).containsOnly(
+                Pair.of("/counters/my.histogram.count/tags", "{\"histogram\":\"count\"}"),
+                Pair.of("/counters/my.histogram.le.2/tags", "{\"histogram\":\"le.2\"}"),
+                Pair.of("/counters/my.histogram.le.5/tags", "{\"histogram\":\"le.5\"}"),
+                Pair.of("/counters/my.histogram.le.10/tags", "{\"histogram\":\"le.10\"}"));
+
+        // Counts are cumulative
+        histogram.update(20);
+        reporter.report();
+        metrics = new JSONObject(client.getMetricsRestCalls().get(1));
+        values = StreamSupport.stream(metrics.getJSONArray("counters").spliterator(), false)
+                .collect(toMap(idFromRoot::extract, valueFromRoot::extract));
+        assertThat(values).containsOnly(
+                entry("my.histogram.count", 7),
+                entry("my.histogram.le.2", 1),
+                entry("my.histogram.le.5", 3),
+                entry("my.histogram.le.10", 7));
+    }
+
+    @Test
+    public void shouldCreateLogLinearBuckets() {
+        assertThat(Buckets.logLinear(1, 1000, 3).getBoundaries())
+                .containsExactly(1, 4, 7, 10, 40, 70, 100, 400, 700, 1000);
+        assertThat(Buckets.logLinear(50, 300, 1).getBoundaries()).containsExactly(100, 300);
+    }
+
+    @Test
+    public void shouldReportSampledGauge() {
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> client)
+                .sampleGauge("/queue\\..*/")
+                .build();
+
+        AtomicReference<Double> depth = new AtomicReference<>(5d);
+        registry.register("queue.depth", (Gauge<Double>) depth::get);
+        registry.register("other.gauge", (Gauge<Double>) () -> 1d);
+        reporter.sampleGauges();
+        depth.set(50d);
+        reporter.sampleGauges();
+        depth.set(20d);
+        reporter.report();
+
+        assertThat(client.getMetricsRestCalls()).hasSize(1);
+        JSONObject metrics = new JSONObject(client.getMetricsRestCalls().get(0));
+        JSONArray gaugesJson = metrics.getJSONArray("gauges");
+        Map<String, Double> values = StreamSupport.stream(gaugesJson.spliterator(), false)
+                .collect(toMap(idFromRoot::extract, dValueFromRoot::extract));
+        assertThat(values).containsOnly(
+                entry("queue.depth.min", 5d),
+                entry("queue.depth.max", 50d),
+                entry("queue.depth.avg", 25d),
+                entry("other.gauge", 1d));
+        assertThat(client.getTagsRestCalls()).containsOnly(
+                Pair.of("/gauges/queue.depth.min/tags", "{\"gauge\":\"min\"}"),
+                Pair.of("/gauges/queue.depth.max/tags", "{\"gauge\":\"max\"}"),
+                Pair.of("/gauges/queue.depth.avg/tags", "{\"gauge\":\"avg\"}"));
+
+        // Aggregation is reset at each report
+        reporter.report();
+        metrics = new JSONObject(client.getMetricsRestCalls().get(1));
+        values = StreamSupport.stream(metrics.getJSONArray("gauges").spliterator(), false)
+                .collect(toMap(idFromRoot::extract, dValueFromRoot::extract));
+        assertThat(values).contains(
+                entry("queue.depth.min", 20d),
+                entry("queue.depth.max", 20d),
+                entry("queue.depth.avg", 20d));
+    }
+
+    @Test
+    public void shouldBatchSeveralCycles() throws InterruptedException {
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> client)
+                .batchCycles(3)
+                .build();
+
+        final Counter counter = registry.counter("my.counter");
+        for (int i = 0; i < 4; i++) {
+            counter.inc();
+            reporter.report();
+            Thread.sleep(5);
+        }
+
+        assertThat(client.getMetricsRestCalls()).hasSize(1);
+        JSONArray json = new JSONObject(client.getMetricsRestCalls().get(0)).getJSONArray("counters");
+        assertThat(json).extracting(idFromRoot).containsExactly("my.counter");
+        assertThat(json.getJSONObject(0).getJSONArray("dataPoints")).extracting(valueFromDataPoints)
+                .containsExactly(1, 2, 3);
+
+        reporter.flush();
+        assertThat(client.getMetricsRestCalls()).hasSize(2);
+        json = new JSONObject(client.getMetricsRestCalls().get(1)).getJSONArray("counters");
+        assertThat(json.getJSONObject(0).getJSONArray("dataPoints")).extracting(valueFromDataPoints)
+                .containsExactly(4);
+    }
+
+    @Test
+    public void shouldFlushBatchOnSizeThreshold() {
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> client)
+                .batchCycles(10)
+                .batchMaxBytes(1)
+                .build();
+
+        registry.counter("my.counter").inc();
+        reporter.report();
+
+        assertThat(client.getMetricsRestCalls()).hasSize(1);
+    }
+
+    @Test
+    public void shouldShareRuntime() {
+        HawkularReporter reporter1 = HawkularReporter.builder(registry, "tenant-1")
+                .useSharedRuntime()
+                .build();
+        HawkularReporter reporter2 = HawkularReporter.builder(new MetricRegistry(), "tenant-2")
+                .useSharedRuntime()
+                .build();
+        reporter1.start(1, TimeUnit.HOURS);
+        reporter2.start(1, TimeUnit.HOURS);
+
+        assertThat(HawkularReportingRuntime.getReferences()).isEqualTo(2);
+        JdkHawkularHttpClient client1 = (JdkHawkularHttpClient) reporter1.getHawkularClient();
+        JdkHawkularHttpClient client2 = (JdkHawkularHttpClient) reporter2.getHawkularClient();
+        assertThat(client1.getFailoverCache()).isSameAs(client2.getFailoverCache());
+
+        reporter1.stop();
+        reporter1.stop();
+        assertThat(HawkularReportingRuntime.getReferences()).isEqualTo(1);
+        reporter2.close();
+        assertThat(HawkularReportingRuntime.getReferences()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldKeepFailoverSettingsOfFirstSharedRuntimeReporter() {
+        HawkularReporter reporter1 = HawkularReporter.builder(registry, "tenant-1")
+                .useSharedRuntime()
+                .failoverCacheMaxSize(10)
+                .build();
+        HawkularReporter reporter2 = HawkularReporter.builder(new MetricRegistry(), "tenant-2")
+                .useSharedRuntime()
+                .failoverCacheMaxSize(5)
+                .failoverDownsampling()
+                .build();
+        reporter1.start(1, TimeUnit.HOURS);
+        reporter2.start(1, TimeUnit.HOURS);
+
+        FailoverCache cache = ((JdkHawkularHttpClient) reporter2.getHawkularClient()).getFailoverCache();
+        assertThat(cache.getMaxSize()).contains(10);
+        assertThat(cache.isDownsampling()).isFalse();
+
+        reporter1.close();
+        reporter2.close();
+        assertThat(HawkularReportingRuntime.getReferences()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldSendFromQueueAndDropNewestWhenFull() throws InterruptedException {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> sent = new CopyOnWriteArrayList<>();
+        HttpClientMock slowClient = new HttpClientMock() {
+            @Override public HawkularHttpResponse postMetrics(String jsonBody) {
+                sending.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sent.add(jsonBody);
+                return null;
+            }
+        };
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> slowClient)
+                .sendQueue(1, SendQueueOverflowPolicy.DROP_NEWEST)
+                .build();
+
+        final Counter counter = registry.counter("my.counter");
+        counter.inc();
+        reporter.report();
+        assertThat(sending.await(5, TimeUnit.SECONDS)).isTrue();
+        // Server is stalled: collection must not be
+        counter.inc();
+        reporter.report();
+        counter.inc();
+        reporter.report();
+        assertThat(reporter.getDroppedPayloads()).isEqualTo(1);
+
+        release.countDown();
+        reporter.stop();
+        assertThat(sent).hasSize(2);
+        assertThat(sent).extracting(json -> valueFromRoot.extract(new JSONObject(json).getJSONArray("counters").get(0)))
+                .containsExactly(1, 2);
+    }
+
+    @Test
+    public void shouldPostReusedDirectBuffers() {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        HttpClientMock bufferClient = new HttpClientMock() {
+            @Override public HawkularHttpResponse postMetrics(ByteBuffer jsonBody) {
+                buffers.add(jsonBody);
+                return super.postMetrics(jsonBody);
+            }
+        };
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> bufferClient)
+                .build();
+
+        final Counter counter = registry.counter("my.counter");
+        counter.inc();
+        reporter.report();
+        counter.inc();
+        reporter.report();
+
+        assertThat(buffers).hasSize(2);
+        assertThat(buffers.get(0).isDirect()).isTrue();
+        assertThat(buffers.get(1)).isSameAs(buffers.get(0));
+        assertThat(bufferClient.getMetricsRestCalls()).hasSize(2);
+        JSONArray json = new JSONObject(bufferClient.getMetricsRestCalls().get(1)).getJSONArray("counters");
+        assertThat(json).extracting(idFromRoot).containsExactly("my.counter");
+        assertThat(json).extracting(valueFromRoot).containsExactly(2);
+    }
+
+    @Test
+    public void shouldDiscardWriteResponseUnlessCaptured() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = "{\"status\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        try {
+            JdkHawkularHttpClient httpClient = new JdkHawkularHttpClient("http://localhost:"
+                    + server.getAddress().getPort());
+            HawkularHttpResponse response = httpClient.postMetrics("{}");
+            assertThat(response.getResponseCode()).isEqualTo(200);
+            assertThat(response.getContent()).isEmpty();
+
+            httpClient.setCaptureResponseContent(true);
+            response = httpClient.postMetrics("{}");
+            assertThat(response.getResponseCode()).isEqualTo(200);
+            assertThat(response.getContent()).isEqualTo("{\"status\":\"ok\"}");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldRollUpFailoverDataWhenCacheIsFull() throws IOException {
+        AtomicBoolean available = new AtomicBoolean(false);
+        List<String> received = new CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String body = new Scanner(exchange.getRequestBody(), "UTF-8").useDelimiter("\\A").next();
+            if (available.get()) {
+                received.add(body);
+            }
+            exchange.sendResponseHeaders(available.get() ? 200 : 500, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            JdkHawkularHttpClient httpClient = new JdkHawkularHttpClient("http://localhost:"
+                    + server.getAddress().getPort());
+            httpClient.setFailoverOptions(Optional.empty(), Optional.of(4));
+            httpClient.setFailoverDownsampling(true);
+            for (long i = 0; i < 8; i++) {
+                httpClient.postMetrics(HawkularJson.metricsToString(i * 1000,
+                        Collections.singletonMap("my.counter", i),
+                        Collections.singletonMap("my.gauge", (double) i)));
+            }
+            assertThat(httpClient.getFailoverCacheSize()).isEqualTo(4);
+
+            available.set(true);
+            httpClient.manageFailover();
+            assertThat(received).hasSize(4);
+            // Oldest request stands for the 4 first ones, then 2, then full resolution
+            assertThat(received.stream().map(JSONObject::new).map(json -> json.getJSONArray("counters")
+                    .getJSONObject(0).getJSONArray("dataPoints").getJSONObject(0).getLong("value")))
+                    .containsExactly(3L, 5L, 6L, 7L);
+            assertThat(received.stream().map(JSONObject::new).map(json -> json.getJSONArray("gauges")
+                    .getJSONObject(0).getJSONArray("dataPoints").getJSONObject(0)))
+                    .extracting(point -> point.getLong("timestamp"), point -> point.getDouble("value"))
+                    .containsExactly(tuple(3000L, 1.5), tuple(5000L, 4.5), tuple(6000L, 6d), tuple(7000L, 7d));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldKeepFailoverCacheWithinByteBudget() throws IOException {
+        AtomicBoolean available = new AtomicBoolean(false);
+        List<String> received = new CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String body = new Scanner(exchange.getRequestBody(), "UTF-8").useDelimiter("\\A").next();
+            if (available.get()) {
+                received.add(body);
+            }
+            exchange.sendResponseHeaders(available.get() ? 200 : 500, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            JdkHawkularHttpClient httpClient = new JdkHawkularHttpClient("http://localhost:"
+                    + server.getAddress().getPort());
+            httpClient.setFailoverCacheMaxBytes(Optional.of(2000L));
+            List<String> payloads = new ArrayList<>();
+            for (long i = 0; i < 20; i++) {
+                Map<String, Long> counters = new HashMap<>();
+                for (int c = 0; c < 50; c++) {
+                    counters.put("my.counter." + c, i * c);
+                }
+                String payload = HawkularJson.metricsToString(i * 1000, counters, Collections.emptyMap());
+                payloads.add(payload);
+                httpClient.postMetrics(payload);
+            }
+            // Payloads are compressed: more are kept than their raw size would allow
+            assertThat(payloads.get(0).length() * 2).isGreaterThan(2000);
+            assertThat(httpClient.getFailoverCache().sizeInBytes()).isPositive().isLessThanOrEqualTo(2000L);
+            assertThat(httpClient.getFailoverCacheSize()).isGreaterThan(2).isLessThan(20);
+
+            available.set(true);
+            int kept = httpClient.getFailoverCacheSize();
+            httpClient.manageFailover();
+            assertThat(received).containsExactlyElementsOf(payloads.subList(20 - kept, 20));
+            assertThat(httpClient.getFailoverCache().sizeInBytes()).isZero();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldTimeoutAndSuspendRequestsWhenServerIsDown() throws IOException, InterruptedException {
+        AtomicBoolean available = new AtomicBoolean(false);
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            if (!available.get()) {
+                // Black-holed: never answers in time
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            JdkHawkularHttpClient httpClient = new JdkHawkularHttpClient("http://localhost:"
+                    + server.getAddress().getPort());
+            httpClient.setTimeouts(1000, 100);
+            httpClient.setCircuitBreaker(2, 200);
+
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 5; i++) {
+                assertThat(httpClient.postMetrics("{}").getResponseCode()).isEqualTo(-1);
+            }
+            // Only 2 requests timed out, the other ones went straight to failover
+            assertThat(System.currentTimeMillis() - start).isLessThan(900);
+            assertThat(requests.get()).isEqualTo(2);
+            assertThat(httpClient.isCircuitBreakerOpen()).isTrue();
+            assertThat(httpClient.getFailoverCacheSize()).isEqualTo(5);
+
+            // Still open: failover is not replayed
+            httpClient.manageFailover();
+            assertThat(requests.get()).isEqualTo(2);
+            assertThat(httpClient.getFailoverCacheSize()).isEqualTo(5);
+
+            available.set(true);
+            Thread.sleep(250);
+            httpClient.manageFailover();
+            assertThat(httpClient.isCircuitBreakerOpen()).isFalse();
+            assertThat(requests.get()).isEqualTo(7);
+            assertThat(httpClient.getFailoverCacheSize()).isZero();
+        } finally {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldHonorRetryAfterWhenServerSignalsPressure() throws IOException, InterruptedException {
+        AtomicBoolean overloaded = new AtomicBoolean(true);
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            if (overloaded.get()) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                exchange.sendResponseHeaders(503, -1);
+            } else {
+                exchange.sendResponseHeaders(200, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            JdkHawkularHttpClient httpClient = new JdkHawkularHttpClient("http://localhost:"
+                    + server.getAddress().getPort());
+            httpClient.setBackoff(100, 5000);
+
+            assertThat(httpClient.postMetrics("{}").getResponseCode()).isEqualTo(503);
+            assertThat(httpClient.isBackingOff()).isTrue();
+            // Retry-After takes precedence over the shorter initial delay
+            Thread.sleep(300);
+            for (int i = 0; i < 3; i++) {
+                assertThat(httpClient.postMetrics("{}").getResponseCode()).isEqualTo(-1);
+            }
+            httpClient.manageFailover();
+            assertThat(requests.get()).isEqualTo(1);
+            assertThat(httpClient.getFailoverCacheSize()).isEqualTo(4);
+
+            overloaded.set(false);
+            Thread.sleep(800);
+            assertThat(httpClient.isBackingOff()).isFalse();
+            // The backlog is replayed progressively: 2 requests, then 3 (only 2 left)
+            httpClient.manageFailover();
+            assertThat(requests.get()).isEqualTo(3);
+            assertThat(httpClient.getFailoverCacheSize()).isEqualTo(2);
+            httpClient.manageFailover();
+            assertThat(requests.get()).isEqualTo(5);
+            assertThat(httpClient.getFailoverCacheSize()).isZero();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldReplayBacklogWithinBudgetAfterPressure() throws IOException, InterruptedException {
+        AtomicInteger status = new AtomicInteger(500);
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            if (status.get() == 429) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+            }
+            exchange.sendResponseHeaders(status.get(), -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            JdkHawkularHttpClient httpClient = new JdkHawkularHttpClient("http://localhost:"
+                    + server.getAddress().getPort());
+            httpClient.setBackoff(10, 20);
+            // Outage: no pressure, the backlog grows
+            for (int i = 0; i < 8; i++) {
+                httpClient.postMetrics("{}");
+            }
+            status.set(429);
+            httpClient.postMetrics("{}");
+            // Retry-After is honored beyond the maximum delay
+            Thread.sleep(300);
+            assertThat(httpClient.isBackingOff()).isTrue();
+            Thread.sleep(800);
+            assertThat(httpClient.isBackingOff()).isFalse();
+
+            status.set(200);
+            requests.set(0);
+            httpClient.manageFailover();
+            assertThat(requests.get()).isEqualTo(2);
+            assertThat(httpClient.getFailoverCacheSize()).isEqualTo(7);
+
+            // Pressure again: the budget, grown to 3, is halved
+            status.set(503);
+            httpClient.manageFailover();
+            Thread.sleep(1100);
+            status.set(200);
+            requests.set(0);
+            httpClient.manageFailover();
+            assertThat(requests.get()).isEqualTo(1);
+            httpClient.manageFailover();
+            assertThat(requests.get()).isEqualTo(3);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldBisectRejectedBatchAndDropPoisonSeries() throws IOException {
+        AtomicInteger requests = new AtomicInteger();
+        List<String> stored = new CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            String body = new Scanner(exchange.getRequestBody(), "UTF-8").useDelimiter("\\A").next();
+            if (body.contains("bad id")) {
+                exchange.sendResponseHeaders(400, -1);
+            } else {
+                new JSONObject(body).getJSONArray("counters").forEach(c -> stored.add(idFromRoot.extract(c)));
+                exchange.sendResponseHeaders(200, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            JdkHawkularHttpClient httpClient = new JdkHawkularHttpClient("http://localhost:"
+                    + server.getAddress().getPort());
+            Map<String, Long> counters = new HashMap<>();
+            for (int i = 0; i < 15; i++) {
+                counters.put("my.counter." + i, (long) i);
+            }
+            counters.put("bad id", 0L);
+
+            assertThat(httpClient.postMetrics(HawkularJson.metricsToString(1000L, counters, Collections.emptyMap()))
+                    .getResponseCode()).isEqualTo(400);
+            assertThat(stored).hasSize(15).doesNotContain("bad id");
+            // 1 rejected batch, then 2 requests per level of bisection
+            assertThat(requests.get()).isLessThanOrEqualTo(1 + 2 * 4);
+            assertThat(httpClient.getFailoverCacheSize()).isZero();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldIsolatePoisonSeriesInBothHalves() throws IOException {
+        AtomicInteger requests = new AtomicInteger();
+        List<String> stored = new CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            String body = new Scanner(exchange.getRequestBody(), "UTF-8").useDelimiter("\\A").next();
+            if (body.contains("bad id")) {
+                exchange.sendResponseHeaders(400, -1);
+            } else {
+                new JSONObject(body).getJSONArray("counters").forEach(c -> stored.add(idFromRoot.extract(c)));
+                exchange.sendResponseHeaders(200, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            JdkHawkularHttpClient httpClient = new JdkHawkularHttpClient("http://localhost:"
+                    + server.getAddress().getPort());
+            // Ordered, so that the first and the last series fall in different halves
+            Map<String, Long> counters = new LinkedHashMap<>();
+            counters.put("bad id 1", 0L);
+            for (int i = 0; i < 14; i++) {
+                counters.put("my.counter." + i, (long) i);
+            }
+            counters.put("bad id 2", 0L);
+
+            assertThat(httpClient.postMetrics(HawkularJson.metricsToString(1000L, counters, Collections.emptyMap()))
+                    .getResponseCode()).isEqualTo(400);
+            assertThat(stored).hasSize(14).doesNotContain("bad id 1", "bad id 2");
+            // 1 rejected batch, then up to 4 requests per level of bisection
+            assertThat(requests.get()).isLessThanOrEqualTo(1 + 4 * 4);
+            assertThat(httpClient.getFailoverCacheSize()).isZero();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldBoundBisectionWhenWholeBatchIsRejected() throws IOException {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            JdkHawkularHttpClient httpClient = new JdkHawkularHttpClient("http://localhost:"
+                    + server.getAddress().getPort());
+            Map<String, Long> counters = new HashMap<>();
+            for (int i = 0; i < 16; i++) {
+                counters.put("my.counter." + i, (long) i);
+            }
+
+            assertThat(httpClient.postMetrics(HawkularJson.metricsToString(1000L, counters, Collections.emptyMap()))
+                    .getResponseCode()).isEqualTo(400);
+            // 1 rejected batch, then the bisection budget of 4 requests per level
+            assertThat(requests.get()).isEqualTo(1 + 4 * 4);
+            // Rejected data would be rejected again on replay
+            assertThat(httpClient.getFailoverCacheSize()).isZero();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldKeepLatestTagRequestPerSeriesInFailover() throws IOException, InterruptedException {
+        AtomicBoolean available = new AtomicBoolean(false);
+        List<Pair<String, String>> received = new CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String body = new Scanner(exchange.getRequestBody(), "UTF-8").useDelimiter("\\A").next();
+            if (available.get()) {
+                received.add(Pair.of(exchange.getRequestURI().getPath(), body));
+            }
+            exchange.sendResponseHeaders(available.get() ? 200 : 500, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            JdkHawkularHttpClient httpClient = new JdkHawkularHttpClient("http://localhost:"
+                    + server.getAddress().getPort());
+            httpClient.setFailoverOptions(Optional.empty(), Optional.of(2));
+            httpClient.putTags("/gauges/a/tags", "{\"k\":\"1\"}");
+            httpClient.putTags("/gauges/b/tags", "{\"k\":\"1\"}");
+            httpClient.putTags("/gauges/a/tags", "{\"k\":\"2\"}");
+            httpClient.postMetrics("{}");
+            httpClient.postMetrics("{}");
+            // Tag requests don't take the room of metrics
+            assertThat(httpClient.getFailoverCacheSize()).isEqualTo(2);
+            assertThat(httpClient.getFailoverTagRequestsSize()).isEqualTo(2);
+
+            available.set(true);
+            httpClient.manageFailover();
+            // Tag requests are replayed on their own thread
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.size() < 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(received).containsOnly(
+                    Pair.of("/hawkular/metrics/gauges/a/tags", "{\"k\":\"2\"}"),
+                    Pair.of("/hawkular/metrics/gauges/b/tags", "{\"k\":\"1\"}"),
+                    Pair.of("/hawkular/metrics/metrics/raw", "{}"));
+            assertThat(received).hasSize(4);
+            assertThat(httpClient.getFailoverCacheSize()).isZero();
+            assertThat(httpClient.getFailoverTagRequestsSize()).isZero();
+            httpClient.close();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldReportSeveralRegistriesInSinglePayload() {
+        MetricRegistry jvmRegistry = new MetricRegistry();
+        jvmRegistry.counter("gc.count").inc(3);
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> client)
+                .addGlobalTag("host", "h1")
+                .addRegistry(jvmRegistry, "jvm.", Collections.singletonMap("source", "jvm"))
+                .build();
+
+        registry.counter("my.counter").inc();
+        jvmRegistry.counter("threads").inc(2);
+        reporter.report();
+
+        assertThat(client.getMetricsRestCalls()).hasSize(1);
+        JSONArray counters = new JSONObject(client.getMetricsRestCalls().get(0)).getJSONArray("counters");
+        assertThat(counters).extracting(idFromRoot).containsOnly("my.counter", "jvm.gc.count", "jvm.threads");
+        assertThat(client.getTagsRestCalls()).containsOnly(
+                Pair.of("/counters/my.counter/tags", "{\"host\":\"h1\"}"),
+                Pair.of("/counters/jvm.gc.count/tags", "{\"host\":\"h1\",\"source\":\"jvm\"}"),
+                Pair.of("/counters/jvm.threads/tags", "{\"host\":\"h1\",\"source\":\"jvm\"}"));
+
+        jvmRegistry.remove("threads");
+        client.getMetricsRestCalls().clear();
+        reporter.report();
+        counters = new JSONObject(client.getMetricsRestCalls().get(0)).getJSONArray("counters");
+        assertThat(counters).extracting(idFromRoot).containsOnly("my.counter", "jvm.gc.count");
+    }
+
+    @Test
+    public void shouldStopListeningToRegistriesOnStop() {
+        MetricRegistry jvmRegistry = new MetricRegistry();
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> client)
+                .addGlobalTag("host", "h1")
+                .addRegistry(jvmRegistry, "jvm.", Collections.singletonMap("source", "jvm"))
+                .build();
+        registry.counter("my.counter");
+        assertThat(client.getTagsRestCalls()).hasSize(1);
+
+        reporter.stop();
+        client.getTagsRestCalls().clear();
+        registry.counter("late.counter");
+        jvmRegistry.counter("threads");
+
+        assertThat(client.getTagsRestCalls()).isEmpty();
+    }
+
+    @Test
+    public void shouldLimitSeriesCardinality() {
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> client)
+                .maxSeries(20)
+                .maxSeries("/user\\./", 2)
+                .build();
+
+        registry.counter("user.1").inc();
+        registry.counter("user.2").inc();
+        registry.counter("user.3").inc();
+        registry.timer("my.timer");
+        // Doesn't fit in the remaining 18 series
+        registry.timer("my.other.timer");
+        reporter.report();
+
+        assertThat(client.getTagsRestCalls()).extracting(Pair::getKey)
+                .contains("/counters/my.timer.count/tags")
+                .doesNotContain("/counters/my.other.timer.count/tags");
+        JSONObject metrics = new JSONObject(client.getMetricsRestCalls().get(0));
+        assertThat(metrics.getJSONArray("counters")).extracting(idFromRoot)
+                .containsOnly("user.1", "user.2", "my.timer.count");
+        JSONArray gauges = metrics.getJSONArray("gauges");
+        assertThat(gauges).extracting(idFromRoot).contains(HawkularReporter.OVERFLOW_METRIC)
+                .doesNotContain("my.other.timer.mean");
+        assertThat(gauges).filteredOn(g -> idFromRoot.extract(g).equals(HawkularReporter.OVERFLOW_METRIC))
+                .extracting(dValueFromRoot).containsExactly(16d);
+
+        // Removing metrics releases their series, for metrics registered afterwards
+        registry.remove("user.1");
+        registry.counter("user.4").inc();
+        client.getMetricsRestCalls().clear();
+        reporter.report();
+        metrics = new JSONObject(client.getMetricsRestCalls().get(0));
+        assertThat(metrics.getJSONArray("counters")).extracting(idFromRoot)
+                .containsOnly("user.2", "user.4", "my.timer.count");
+    }
+
+    @Test
+    public void shouldReloadRulesAndRetagChangedSeriesOnly() {
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> client)
+                .addGlobalTag("env", "dev")
+                .setMetricComposition("my.meter", Lists.newArrayList("1minrt"))
+                .build();
+
+        registry.counter("my.counter");
+        registry.counter("other.counter");
+        registry.meter("my.meter");
+        client.getTagsRestCalls().clear();
+
+        reporter.reloadRules(HawkularReporter.builder(registry, "unit-test")
+                .addGlobalTag("env", "dev")
+                .addMetricTag("my.counter", "owner", "me")
+                .setMetricComposition("my.meter", Lists.newArrayList("1minrt", "5minrt")));
+
+        assertThat(client.getTagsRestCalls()).containsOnly(
+                Pair.of("/counters/my.counter/tags", "{\"env\":\"dev\",\"owner\":\"me\"}"),
+                Pair.of("/gauges/my.meter.5minrt/tags", "{\"env\":\"dev\",\"meter\":\"5minrt\"}"));
+        assertThat(reporter.getAllowedParts("my.meter")).hasValueSatisfying(parts ->
+                assertThat(parts).containsOnly("1minrt", "5minrt"));
+
+        reporter.report();
+        JSONObject metrics = new JSONObject(client.getMetricsRestCalls().get(0));
+        assertThat(metrics.getJSONArray("gauges")).extracting(idFromRoot)
+                .containsOnly("my.meter.1minrt", "my.meter.5minrt");
+    }
+
+    @Test
+    public void shouldDeleteTagsRemovedByReload() {
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> client)
+                .addGlobalTag("env", "dev")
+                .addMetricTag("my.counter", "owner", "me")
+                .build();
+
+        registry.counter("my.counter");
+        client.getTagsRestCalls().clear();
+
+        reporter.reloadRules(HawkularReporter.builder(registry, "unit-test")
+                .addGlobalTag("env", "dev"));
+
+        assertThat(client.getDeleteTagsRestCalls()).containsOnly(
+                Pair.of("/counters/my.counter/tags", Collections.singleton("owner")));
+        assertThat(client.getTagsRestCalls()).containsOnly(
+                Pair.of("/counters/my.counter/tags", "{\"env\":\"dev\"}"));
+    }
+
+    @Test
+    public void shouldNotResendSameTagsWhenMetricIsReAdded() {
+        HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> client)
+                .addGlobalTag("env", "dev")
+                .build();
+
+        registry.timer("my.timer");
+        int tagCalls = client.getTagsRestCalls().size();
+        assertThat(tagCalls).isEqualTo(15);
+
+        registry.remove("my.timer");
+        registry.timer("my.timer");
+        assertThat(client.getTagsRestCalls()).hasSize(tagCalls);
+    }
+
+    @Test
+    public void shouldReportWithPhaseAndAlignedTimestamps() throws InterruptedException {
+        assertThat(ReportPhase.hashed("pod-1").offset(60000)).isEqualTo(ReportPhase.hashed("pod-1").offset(60000))
+                .isNotEqualTo(ReportPhase.hashed("pod-2").offset(60000))
+                .isBetween(0L, 59999L);
+
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> client)
+                .reportPhase("pod-1")
+                .build();
+        registry.counter("my.counter").inc();
+        reporter.start(100, TimeUnit.MILLISECONDS);
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (client.getMetricsRestCalls().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            reporter.stop();
+        }
+
+        JSONObject dataPoint = new JSONObject(client.getMetricsRestCalls().get(0)).getJSONArray("counters")
+                .getJSONObject(0).getJSONArray("dataPoints").getJSONObject(0);
+        assertThat(dataPoint.getLong("timestamp") % 100).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldDeferLowPriorityMetricsWhenBudgetIsSpent() {
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> client)
+                .collectionBudget(20)
+                .setMetricPriority("slow.gauge", MetricPriority.HIGH)
+                .setMetricPriority("/^low\\./", MetricPriority.LOW)
+                .build();
+
+        registry.register("slow.gauge", (Gauge<Integer>) () -> {
+            try {
+                Thread.sleep(30);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 1;
+        });
+        registry.counter("low.counter").inc();
+        registry.meter("low.meter").mark();
+        reporter.report();
+
+        // The deferred meter accounts for its count and its 4 rates
+        assertThat(reporter.getDeferredMetrics()).isEqualTo(2);
+        assertThat(reporter.getDeferredSeries()).isEqualTo(6);
+        JSONObject metrics = new JSONObject(client.getMetricsRestCalls().get(0));
+        assertThat(metrics.has("counters")).isFalse();
+        assertThat(metrics.getJSONArray("gauges")).extracting(idFromRoot)
+                .containsOnly("slow.gauge", HawkularReporter.DEFERRED_METRIC);
+        assertThat(metrics.getJSONArray("gauges")).extracting(dValueFromRoot).contains(6d);
+
+        registry.remove("slow.gauge");
+        reporter.report();
+        assertThat(reporter.getDeferredMetrics()).isEqualTo(0);
+        assertThat(reporter.getDeferredSeries()).isEqualTo(0);
+        metrics = new JSONObject(client.getMetricsRestCalls().get(1));
+        assertThat(metrics.getJSONArray("counters")).extracting(idFromRoot)
+                .containsOnly("low.counter", "low.meter.count");
+    }
+
+    @Test
+    public void shouldReportFromIndexMaintainedOnRegistryChanges() {
+        registry.counter("before.counter").inc();
+        registry.counter("ignored.counter").inc();
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                .useHttpClient(uri -> client)
+                .filter((name, metric) -> !name.startsWith("ignored"))
+                .build();
+
+        registry.counter("after.counter").inc();
+        reporter.report();
+        JSONObject metrics = new JSONObject(client.getMetricsRestCalls().get(0));
+        assertThat(metrics.getJSONArray("counters")).extracting(idFromRoot)
+                .containsOnly("before.counter", "after.counter");
+
+        registry.remove("before.counter");
+        registry.register("ignored.gauge", (Gauge<Double>) () -> 1d);
+        reporter.report();
+        metrics = new JSONObject(client.getMetricsRestCalls().get(1));
+        assertThat(metrics.keySet()).containsExactly("counters");
+        assertThat(metrics.getJSONArray("counters")).extracting(idFromRoot).containsOnly("after.counter");
+    }
+
+    @Test
+    public void shouldReportPrimitiveGauges() {
+        HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test").useHttpClient(uri -> client).build();
+
+        registry.register("double.gauge", (DoubleGauge) () -> 1.5);
+        registry.register("long.gauge", (LongGauge) () -> 42L);
+        registry.register("nan.gauge", (DoubleGauge) () -> Double.NaN);
+        registry.registerAll(new JvmGauges());
+        reporter.report();
+
+        JSONObject metrics = new JSONObject(client.getMetricsRestCalls().get(0));
+        JSONArray gauges = metrics.getJSONArray("gauges");
+        assertThat(gauges).extracting(idFromRoot)
+                .contains("double.gauge", "long.gauge", "jvm.heap.used", "jvm.threads.count")
+                .doesNotContain("nan.gauge");
+        assertThat(gauges).filteredOn(g -> idFromRoot.extract(g).equals("double.gauge"))
+                .extracting(dValueFromRoot).containsExactly(1.5);
+        assertThat(gauges).filteredOn(g -> idFromRoot.extract(g).equals("long.gauge"))
+                .extracting(dValueFromRoot).containsExactly(42d);
+    }
+
     private static class HttpClientMock implements HawkularHttpClient {
         private List<String> metricsRestCalls = new ArrayList<>();
         private List<Pair<String, String>> tagsRestCalls = new ArrayList<>();
+        private List<Pair<String, Collection<String>>> deleteTagsRestCalls = new ArrayList<>();
+        private Map<String, String> headers = new HashMap<>();
 
-        @Override public void addHeaders(Map<String, String> headers) {}
+        @Override public void addHeaders(Map<String, String> headers) {
+            this.headers.putAll(headers);
+        }
 
         @Override public HawkularHttpResponse postMetrics(String jsonBody) {
             metricsRestCalls.add(jsonBody);
@@ -404,6 +1385,11 @@ public class HawkularReporterTest {
             return null;
         }
 
+        @Override public HawkularHttpResponse deleteTags(String resourcePath, Collection<String> tagNames) {
+            deleteTagsRestCalls.add(Pair.of(resourcePath, tagNames));
+            return null;
+        }
+
         @Override
         public void setFailoverOptions(Optional<Long> failoverCacheDuration, Optional<Integer> failoverCacheMaxSize) {
         }
@@ -418,5 +1404,13 @@ public class HawkularReporterTest {
         List<Pair<String, String>> getTagsRestCalls() {
             return tagsRestCalls;
         }
+
+        List<Pair<String, Collection<String>>> getDeleteTagsRestCalls() {
+            return deleteTagsRestCalls;
+        }
+
+        Map<String, String> getHeaders() {
+            return headers;
+        }
     }
 }
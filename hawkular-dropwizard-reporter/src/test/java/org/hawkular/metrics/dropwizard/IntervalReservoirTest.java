@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Snapshot;
+
+public class IntervalReservoirTest {
+
+    @Test
+    public void shouldComputeBucketBounds() {
+        for (long value : new long[] {0, 1, 63, 64, 65, 1000, 123456789, Long.MAX_VALUE}) {
+            int index = IntervalReservoir.bucketIndex(value, 5);
+            assertThat(IntervalReservoir.bucketLowerBound(index, 5)).isLessThanOrEqualTo(value);
+            assertThat(IntervalReservoir.bucketUpperBound(index, 5)).isGreaterThanOrEqualTo(value);
+        }
+        assertThat(IntervalReservoir.bucketIndex(Long.MAX_VALUE, 5)).isEqualTo((64 - 5) * 32 - 1);
+    }
+
+    @Test
+    public void shouldApproximatePercentilesAndReset() {
+        IntervalReservoir reservoir = new IntervalReservoir(5, 2);
+        for (int i = 1; i <= 1000; i++) {
+            reservoir.update(i);
+        }
+        assertThat(reservoir.size()).isEqualTo(1000);
+
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertThat(snapshot.size()).isEqualTo(1000);
+        assertThat(snapshot.getMin()).isEqualTo(1);
+        assertThat(snapshot.getMax()).isEqualTo(1000);
+        assertThat(snapshot.getMean()).isEqualTo(500.5);
+        assertThat(snapshot.getMedian()).isCloseTo(500, within(500 * 0.04));
+        assertThat(snapshot.get99thPercentile()).isCloseTo(990, within(990 * 0.04));
+        assertThat(snapshot.getStdDev()).isCloseTo(288.8, within(288.8 * 0.04));
+        long[] values = snapshot.getValues();
+        assertThat(values).hasSize(1000);
+        assertThat(values[0]).isEqualTo(1);
+        assertThat(values[999]).isEqualTo(1000);
+
+        // Next snapshot only holds values recorded since the previous one
+        reservoir.update(42);
+        snapshot = reservoir.getSnapshot();
+        assertThat(snapshot.size()).isEqualTo(1);
+        assertThat(snapshot.getMedian()).isEqualTo(42);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldCountEachValueInExactlyOneSnapshot() throws InterruptedException {
+        IntervalReservoir reservoir = new IntervalReservoir(5, 4);
+        int threads = 4;
+        int updates = 200_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < updates; i++) {
+                    reservoir.update(1);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        long count = 0;
+        start.countDown();
+        while (writers.stream().anyMatch(Thread::isAlive)) {
+            count += checkedSize(reservoir.getSnapshot());
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        count += checkedSize(reservoir.getSnapshot());
+
+        assertThat(count).isEqualTo((long) threads * updates);
+    }
+
+    private static int checkedSize(Snapshot snapshot) {
+        if (snapshot.size() > 0) {
+            // All values are 1: sum and bucket counts agree
+            assertThat(snapshot.getMean()).isEqualTo(1.0);
+        }
+        return snapshot.size();
+    }
+}
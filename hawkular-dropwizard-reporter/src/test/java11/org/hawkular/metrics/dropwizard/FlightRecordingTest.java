@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016-2017 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.hawkular.metrics.dropwizard;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.hawkular.metrics.reporter.http.HawkularHttpClient;
+import org.hawkular.metrics.reporter.http.HawkularHttpResponse;
+import org.hawkular.metrics.reporter.jfr.FlightRecording;
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Compiled from {@code src/test/java11}, only when building on JDK 11+
+ */
+public class FlightRecordingTest {
+
+    private final MetricRegistry registry = new MetricRegistry();
+
+    @Test
+    public void shouldRecordFlightRecorderEvents() throws IOException {
+        assumeTrue(FlightRecording.isAvailable());
+        Path dump = Files.createTempFile("hawkular-reporter", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("org.hawkular.metrics.reporter.ReportCycle");
+            recording.enable("org.hawkular.metrics.reporter.Tagging");
+            recording.start();
+            HawkularReporter reporter = HawkularReporter.builder(registry, "unit-test")
+                    .useHttpClient(uri -> new NoopHttpClient())
+                    .globalTags(Collections.singletonMap("global-tag", "abc"))
+                    .build();
+            registry.counter("my.counter").inc();
+            reporter.report();
+            recording.stop();
+            recording.dump(dump);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+            assertThat(events).filteredOn(e -> e.getEventType().getName().endsWith("ReportCycle"))
+                    .extracting(e -> e.getInt("series"))
+                    .containsExactly(1);
+            assertThat(events).filteredOn(e -> e.getEventType().getName().endsWith("Tagging"))
+                    .extracting(e -> e.getString("metric") + ":" + e.getInt("sent"))
+                    .containsExactly("my.counter:1");
+        } finally {
+            Files.delete(dump);
+        }
+    }
+
+    private static class NoopHttpClient implements HawkularHttpClient {
+        @Override public void addHeaders(Map<String, String> headers) {
+        }
+
+        @Override public HawkularHttpResponse postMetrics(String jsonBody) {
+            return null;
+        }
+
+        @Override public HawkularHttpResponse putTags(String resourcePath, String jsonBody) {
+            return null;
+        }
+
+        @Override
+        public void setFailoverOptions(Optional<Long> failoverCacheDuration, Optional<Integer> failoverCacheMaxSize) {
+        }
+
+        @Override public void manageFailover() {
+        }
+    }
+}